@@ -1,11 +1,24 @@
 import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.BitSet;
 import java.util.Deque;
 import java.util.Random;
 import java.util.HashMap;
 import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
 import javalib.impworld.*;
 import javalib.worldimages.*;
 import tester.Tester;
@@ -28,6 +41,29 @@ import tester.Tester;
  * At any time you can press r to generate a new random maze and then
  * press either b d or m
  *
+ * Press w instead of r for a weighted maze that favors long horizontal
+ * corridors
+ *
+ * Press f to move the start and end to the two cells that are farthest
+ * apart, and f again to put them back in the corners
+ *
+ * Press l to open half of the dead ends up into loops. breadth-first
+ * still finds a shortest path once there are loops
+ *
+ * Press h to shade every cell by its distance from the start
+ *
+ * Press = and - to zoom in and out, 4 6 8 and 2 to move around, and 0 to
+ * see the whole maze again. zoomed far enough out the walls give way to
+ * blocks shaded by how open they are
+ *
+ * Press g to switch to painting each frame as a single image, which is
+ * much faster on big mazes
+ *
+ * After b or d, press , and . to skip the animation back and forward,
+ * and [ and ] to slow it down and speed it up. the animation also speeds
+ * itself up on big mazes for as long as frames keep up with 60 a second;
+ * press p to show how long frames have been taking
+ *
  */
 /*----------------------------------------------------------------*/
 
@@ -39,9 +75,16 @@ class Cell {
   Edge bottom;
 
   Posn coord;
+  // the count of wall changes this cell's maze keeps, bumped by every update below
+  WallCount walls;
 
   Cell(Posn coord) {
+    this(coord, new WallCount());
+  }
+
+  Cell(Posn coord, WallCount walls) {
     this.coord = coord;
+    this.walls = walls;
     this.left = null;
     this.right = null;
     this.top = null;
@@ -51,21 +94,25 @@ class Cell {
   // EFFECT: set the left edge to the given edge
   void updateLeft(Edge e) {
     this.left = e;
+    this.walls.changes += 1;
   }
 
   // EFFECT: set the right edge to the given edge
   void updateRight(Edge e) {
     this.right = e;
+    this.walls.changes += 1;
   }
 
   // EFFECT: set the top edge to the given edge
   void updateTop(Edge e) {
     this.top = e;
+    this.walls.changes += 1;
   }
 
   // EFFECT: set the bottom edge to the given edge
   void updateBottom(Edge e) {
     this.bottom = e;
+    this.walls.changes += 1;
   }
 
   // if you draw a line between this cell and that cell, is it horizontal?
@@ -80,29 +127,34 @@ class Cell {
 
   // place all of this cell's edges onto the WorldScene at the correct coordinates
   WorldScene drawCell(WorldScene s, int size) {
+    return this.drawCell(s, size, 0, 0);
+  }
+
+  // place all of this cell's edges onto the WorldScene, moved by the given offset
+  WorldScene drawCell(WorldScene s, int size, int dx, int dy) {
     if (this.left == null) {
       s.placeImageXY(
           new LineImage(new Posn(0, size), Color.BLACK),
-          (this.coord.x * size),
-          (this.coord.y * size) + size / 2);
+          (this.coord.x * size) + dx,
+          (this.coord.y * size) + size / 2 + dy);
     }
     if (this.right == null) {
       s.placeImageXY(
           new LineImage(new Posn(0, size), Color.BLACK),
-          (this.coord.x * size) + size,
-          (this.coord.y * size) + size / 2);
+          (this.coord.x * size) + size + dx,
+          (this.coord.y * size) + size / 2 + dy);
     }
     if (this.top == null) {
       s.placeImageXY(
           new LineImage(new Posn(size, 0), Color.BLACK),
-          (this.coord.x * size) + size / 2,
-          (this.coord.y * size));
+          (this.coord.x * size) + size / 2 + dx,
+          (this.coord.y * size) + dy);
     }
     if (this.bottom == null) {
       s.placeImageXY(
           new LineImage(new Posn(size, 0), Color.BLACK),
-          (this.coord.x * size) + size / 2,
-          (this.coord.y * size) + size);
+          (this.coord.x * size) + size / 2 + dx,
+          (this.coord.y * size) + size + dy);
     }
 
     return s;
@@ -151,6 +203,16 @@ class Cell {
 
 }
 
+// how many times the walls of one maze have changed. a maze and its cells share one, so
+// edges and cells changed directly make the maze's snapshots stale just like its own methods
+class WallCount {
+  int changes;
+
+  WallCount() {
+    this.changes = 0;
+  }
+}
+
 // represents an edge of a graph, connects 2 cells together
 class Edge {
   Cell cell1;
@@ -174,12 +236,40 @@ class Edge {
       cell2.updateLeft(null);
     }
   }
+
+  // EFFECT: link this edge back into its corresponding cells
+  void restoreEdge() {
+    if (cell1.verticalBetween(cell2)) {
+      cell1.updateBottom(this);
+      cell2.updateTop(this);
+    }
+    else if (cell1.horizontalBetween(cell2)) {
+      cell1.updateRight(this);
+      cell2.updateLeft(this);
+    }
+  }
 }
 
 // a maze, generated using Kruskal's algorithm. also the world state for our program
 class Maze extends World {
   static final int PIXEL_WIDTH = 900;
   static final int PIXEL_HEIGHT = 600;
+  // the share of dead ends the l key opens up into loops
+  static final double BRAID_FRACTION = 0.5;
+  // the largest cells zooming in goes to, and the smallest zooming out draws walls for
+  static final int MAX_CELL_SIZE = 64;
+  static final int MIN_CELL_SIZE = 4;
+  static final Color START_COLOR = new Color(102, 204, 0);
+  static final Color TARGET_COLOR = new Color(153, 0, 153);
+  static final Color VISITED_COLOR = new Color(102, 178, 255);
+  static final Color PATH_COLOR = new Color(0, 102, 204);
+  // what the overlay shows in a cell: nothing, a visit, or the path, which covers a visit
+  static final byte NOT_DRAWN = 0;
+  static final byte DRAWN_VISITED = 1;
+  static final byte DRAWN_PATH = 2;
+  // how many ticks' worth of events , and . skip, and the most events a tick can play
+  static final int SEEK_STEP = 10;
+  static final int MAX_REPLAY_SPEED = 1024;
 
   int width;
   int height;
@@ -188,55 +278,108 @@ class Maze extends World {
   Random rand;
   ArrayList<Cell> cells;
   ArrayList<Edge> edges;
+  // the cells the last search visited and its path back from the target, in order
   ArrayList<Cell> path;
+  // the cells visited by hand, drawn along with the played part of the replay log
   ArrayList<Cell> cellsToDraw;
   ArrayList<Cell> correctPath;
-  ArrayList<Cell> correctCellsToDraw;
 
   boolean drawing;
   boolean solvingManually;
   ArrayList<Cell> alreadySeen;
+  // the cells in alreadySeen, by index, so a move can check it without a search
+  BitSet seen;
+  // the cell one step nearer the start from every cell, worked out when manual solving
+  // begins so reaching the target only has to follow it back, or null before then
+  int[] toStart;
+
+  // counts every change to the walls, shared with the cells so that a wall changed through
+  // a cell or an edge directly counts too, and anything derived from the walls can tell
+  // when it is stale
+  WallCount walls;
+  MazeGrid grid;
+  int gridVersion;
+  GeneratorScratch scratch;
+
+  // the cells taking part in the maze, or null for the whole rectangle, and the indices of
+  // the cells every solve goes from and to
+  CellMask mask;
+  int start;
+  int target;
+  // whether start and target are put at the two cells farthest apart instead of the corners
+  boolean farthest;
+  // whether cells are shaded by their distance from the start, and the distances from the
+  // start and the target that shading is worked out from
+  boolean heatmap;
+  int[] fromStart;
+  int[] fromTarget;
+  // the largest distance in fromStart, and the walls and endpoints the fields are for
+  int mostFromStart;
+  int fieldsVersion;
+  int fieldsStart;
+  int fieldsTarget;
+  // the camera: the cell in the top left corner of the window, and how many cells across
+  // each square of cellSize pixels covers. past one, walls are too small to see and each
+  // square is drawn as a single block shaded by how open its cells are
+  int viewX;
+  int viewY;
+  int lod;
+  // the number of passages in every block of 1, 2, 4, ... cells across, rebuilt only after
+  // the walls change
+  ArrayList<int[]> pyramid;
+  int pyramidVersion;
+  // whether frames are painted into one raster instead of built out of many images, and
+  // the raster they are painted into, made on first use
+  boolean rasterMode;
+  MazeRaster raster;
+  // the walls in view painted on a clear raster, for the frames built out of images, and
+  // the walls version and visible rectangle they were painted for
+  MazeRaster wallLayer;
+  int[] wallLayerKey;
+  // the log of the last search, which the animation plays from, and how many of its
+  // events each tick plays
+  ReplayLog replay;
+  // how many events of the replay log have been played, 0 when there is no log
+  int replayAt;
+  int replaySpeed;
+  // paces the animation to the time frames take, or null to play a fixed number of
+  // events each tick
+  FrameClock clock;
+  // whether the clock's frame times are shown over the maze
+  boolean showTimes;
+  // what the overlay shows in every cell, kept up to date as the animation plays and the
+  // player moves so that a frame only reads the cells in view. worked out again from the
+  // log and the cells visited by hand when the log changes or plays backwards, and null
+  // until then
+  byte[] overlay;
+  // the most drawn state of any cell in each block of overlayLod by overlayLod cells, kept
+  // up to date along with the overlay, or null until the blocks are next drawn
+  byte[] overlayBlocks;
+  int overlayLod;
+  // the generator behind a lazy maze, which makes a cell's passages the first time a search
+  // or the player reaches it, or null when the whole maze was generated up front
+  LazyMaze lazy;
 
 
   // main maze constructor
   Maze(int width, int height) {
-    this.width = width;
-    this.height = height;
-    this.rand = new Random();
-    this.cells = new ArrayList<Cell>();
-    this.edges = new ArrayList<Edge>();
-    this.cellSize = Math.min(this.PIXEL_WIDTH / width, this.PIXEL_HEIGHT / height);
-    if (this.cellSize % 2 == 1) {
-      this.cellSize = this.cellSize - 1;
-    }
-    this.cellsToDraw = new ArrayList<Cell>();
-    this.correctCellsToDraw = new ArrayList<Cell>();
-    this.path = new ArrayList<Cell>();
-    this.correctPath = new ArrayList<Cell>();
-    this.drawing = false;
-    this.solvingManually = false;
-    this.currentIndex = 0;
-
-    this.alreadySeen = new ArrayList<Cell>();
-    this.createCells();
-    this.connectCellsX();
-    this.connectCellsY();
-    this.createMaze();
+    this(width, height, true, new Random());
   }
 
   // convenience constructor
   Maze(int width, int height, Random rand) {
+    this(width, height, true, rand);
+  }
+
+  // convenience constructor 2, which every other one goes through so that the state of a
+  // maze is set up in one place. without init there are no cells yet
+  Maze(int width, int height, boolean init, Random rand) {
     this.width = width;
     this.height = height;
     this.rand = rand;
     this.cells = new ArrayList<Cell>();
     this.edges = new ArrayList<Edge>();
-    this.cellSize = Math.min(this.PIXEL_WIDTH / width, this.PIXEL_HEIGHT / height);
-    if (this.cellSize % 2 == 1) {
-      this.cellSize = this.cellSize - 1;
-    }
     this.cellsToDraw = new ArrayList<Cell>();
-    this.correctCellsToDraw = new ArrayList<Cell>();
     this.path = new ArrayList<Cell>();
     this.correctPath = new ArrayList<Cell>();
     this.drawing = false;
@@ -244,104 +387,500 @@ class Maze extends World {
     this.currentIndex = 0;
 
     this.alreadySeen = new ArrayList<Cell>();
-    this.createCells();
-    this.connectCellsX();
-    this.connectCellsY();
-    this.createMaze();
+    this.seen = new BitSet();
+    this.toStart = null;
+    this.walls = new WallCount();
+    this.gridVersion = -1;
+    this.scratch = new GeneratorScratch();
+    this.farthest = false;
+    this.heatmap = false;
+    this.resetView();
+    this.pyramid = null;
+    this.pyramidVersion = -1;
+    this.rasterMode = false;
+    this.raster = null;
+    this.wallLayer = null;
+    this.wallLayerKey = null;
+    this.replay = null;
+    this.replayAt = 0;
+    this.replaySpeed = 1;
+    this.clock = null;
+    this.showTimes = false;
+    this.overlay = null;
+    this.overlayBlocks = null;
+    this.overlayLod = 0;
+    this.lazy = null;
+    this.mask = null;
+    this.start = 0;
+    this.target = this.width * this.height - 1;
+    if (init) {
+      this.createCells();
+      this.generate();
+    }
   }
 
-  // convenience constructor 2
-  Maze(int width, int height, boolean init, Random rand) {
-    this.width = width;
-    this.height = height;
-    this.rand = rand;
-    this.cells = new ArrayList<Cell>();
-    this.edges = new ArrayList<Edge>();
-    this.cellSize = Math.min(this.PIXEL_WIDTH / width, this.PIXEL_HEIGHT / height);
-    this.solvingManually = false;
-    this.currentIndex = 0;
-    this.alreadySeen = new ArrayList<Cell>();
-    if (this.cellSize % 2 == 1) {
-      this.cellSize = this.cellSize - 1;
+  // convenience constructor 3: rebuild a maze from a compact snapshot without generating it
+  Maze(MazeGrid grid) {
+    this(grid.width, grid.height, false, new Random());
+    this.mask = grid.mask;
+    if (this.mask != null) {
+      this.start = this.mask.first();
+      this.target = this.mask.last();
+      this.currentIndex = this.start;
     }
-    if (init) {
-      this.createCells();
-      this.connectCellsX();
-      this.connectCellsY();
-      this.createMaze();
+    this.createCells();
+    this.restore(grid);
+  }
+
+  // convenience constructor 4: a maze over only the active cells of the given mask, going
+  // from the first active cell to the last
+  Maze(CellMask mask, Random rand) {
+    this(mask.width, mask.height, false, rand);
+    if (mask.first() < 0) {
+      throw new IllegalArgumentException("A masked maze needs at least one active cell");
     }
+    this.mask = mask;
+    this.start = mask.first();
+    this.target = mask.last();
+    this.currentIndex = this.start;
+    this.createCells();
+    this.generate();
+  }
+
+  // convenience constructor 5: a lazy maze from the top left to the bottom right corner,
+  // with no passages until a search or the player reaches them. only the start cell's are
+  // made up front, so the player can see which ways lead out of it
+  Maze(LazyMaze lazy) {
+    this(lazy.width, lazy.height, false, new Random(lazy.seed));
+    this.lazy = lazy;
+    this.createCells();
+    this.reveal(this.start);
+  }
+
+  // EFFECT: build a random maze with the primitive Kruskal's of MazeGrid.generateInto, which
+  // lists the grid's edges in bulk as int codes, and link up Edge objects only for the
+  // passages it keeps. it gives the same maze connectCellsX, connectCellsY and createMaze
+  // would from the same random numbers, without an Edge for every pair of neighbors first.
+  // the grid is filled in this maze's own scratch bitmaps and kept as its snapshot
+  void generate() {
+    this.restore(MazeGrid.generateInto(this.width, this.height, this.mask, this.rand,
+        this.scratch));
   }
 
   // EFFECT: constructs a random maze by using Kruskal's algorithm and Union/Find
-  // to create a minimum spanning tree
+  // to create a minimum spanning tree. the edges are visited in a shuffled order of their
+  // indices, using the same swaps Collections.shuffle would make on the list itself, and
+  // the union/find runs on the int parents in this maze's scratch buffers
   void createMaze() {
-    UnionFind uf = new UnionFind(new HashMap<Cell, Cell>());
-    ArrayList<Edge> edgesInTree = new ArrayList<Edge>();
-    Collections.shuffle(this.edges, this.rand);
-    ArrayList<Edge> worklist = new ArrayList<Edge>(this.edges);
+    int count = this.edges.size();
+    this.scratch.ensure(this.cells.size());
+    int[] order = this.scratch.edges;
+
+    for (int i = 0; i < count; i++) {
+      order[i] = i;
+    }
+    GeneratorScratch.shuffle(order, count, this.rand);
+    this.knockDownCycles(order, count);
+  }
+
+  // EFFECT: constructs a random maze with Kruskal's algorithm over random edge weights.
+  // every edge gets a weight below MazeGrid.MAX_WEIGHT, vertical edges get the bias added
+  // (horizontal ones get it subtracted when it is negative), and the edges are visited
+  // lightest first after a radix sort, so a positive bias makes horizontal corridors
+  void createWeightedMaze(int bias) {
+    int count = this.edges.size();
+    this.scratch.ensure(this.cells.size());
+    int[] order = this.scratch.edges;
+    int[] keys = this.scratch.keys;
+
+    for (int i = 0; i < count; i++) {
+      Edge e = this.edges.get(i);
+      e.weight = MazeGrid.weight(this.rand, e.cell1.horizontalBetween(e.cell2), bias);
+      keys[i] = e.weight;
+      order[i] = i;
+    }
+    this.scratch.sortByKey(order, count);
+    this.knockDownCycles(order, count);
+  }
+
+  // EFFECT: visit the edges at the given indices in order, keeping each one that joins two
+  // separate trees and knocking down each one that would create a cycle
+  void knockDownCycles(int[] order, int count) {
+    int n = this.cells.size();
+    int[] parent = this.scratch.parent;
 
     // initialize every node's representative to itself
-    uf.initRepresentatives(this.cells);
+    for (int i = 0; i < n; i++) {
+      parent[i] = i;
+    }
 
-    // while there's more than one tree
-    while (edgesInTree.size() < this.cells.size() - 1) {
-      // pick the next edge in the graph
-      Edge e = worklist.get(0);
-      Cell c1 = e.cell1;
-      Cell c2 = e.cell2;
+    for (int k = 0; k < count; k++) {
+      Edge e = this.edges.get(order[k]);
+      int r1 = GeneratorScratch.find(parent, this.indexOf(e.cell1));
+      int r2 = GeneratorScratch.find(parent, this.indexOf(e.cell2));
 
-      if (uf.find(c1).equals(uf.find(c2))) {
-        // do nothing if a cycle would be created
+      if (r1 == r2) {
+        e.removeEdge();
       }
       else {
-        edgesInTree.add(e);
-        //e.removeEdge();
-        uf.union(uf.find(c1), uf.find(c2));
+        parent[r1] = r2;
       }
-      worklist.remove(0);
     }
+    this.walls.changes += 1;
+  }
+
+  // the index of the given cell in this maze's cells
+  int indexOf(Cell c) {
+    return c.coord.y * this.width + c.coord.x;
+  }
+
+  // does the cell at the given index take part in the maze?
+  boolean active(int i) {
+    return this.mask == null || this.mask.active(i);
+  }
+
+  // the number of edges connectCellsX and connectCellsY create for this maze
+  int gridEdges() {
+    if (this.mask == null) {
+      return (this.width - 1) * this.height + this.width * (this.height - 1);
+    }
+    return MazeGrid.listEdges(this.width, this.height, this.mask, null);
+  }
 
+  // EFFECT: replace this maze with a new random one of the same size, keeping the cells
+  // and the scratch buffers and making edges only for the new maze's passages
+  void regenerate() {
+    this.clearDrawing();
     for (Edge e : this.edges) {
-      if (!edgesInTree.contains(e)) {
-        e.removeEdge();
+      e.removeEdge();
+    }
+    if (this.lazy != null) {
+      this.edges.clear();
+      this.lazy = new LazyMaze(this.width, this.height, this.rand.nextLong());
+      this.walls.changes += 1;
+      this.placeEndpoints();
+      this.reveal(this.start);
+      return;
+    }
+    this.generate();
+    this.placeEndpoints();
+  }
+
+  // EFFECT: in a lazy maze, generate cell i's passages if they have not been yet and link
+  // them to its neighbors, whose own passages are left for when they are reached. an up to
+  // date snapshot has the same passages opened in it rather than being thrown away, so a
+  // move into a new cell costs the same whatever the size of the maze
+  void reveal(int i) {
+    int open = this.lazy.passages(i);
+    Cell c = this.cells.get(i);
+    boolean fresh = this.gridVersion == this.wallVersion();
+    boolean linked = false;
+    if ((open & 1) != 0 && c.right == null) {
+      this.link(c, this.cells.get(i + 1));
+      linked = true;
+    }
+    if ((open & 2) != 0 && c.bottom == null) {
+      this.link(c, this.cells.get(i + this.width));
+      linked = true;
+    }
+    if ((open & 4) != 0 && c.left == null) {
+      this.link(this.cells.get(i - 1), c);
+      linked = true;
+    }
+    if ((open & 8) != 0 && c.top == null) {
+      this.link(this.cells.get(i - this.width), c);
+      linked = true;
+    }
+    if (linked) {
+      // the parents worked out for the manual mode only cover what had been reached
+      this.toStart = null;
+      this.walls.changes += 1;
+      if (fresh) {
+        this.grid.openAll(i, open);
+        this.gridVersion = this.wallVersion();
+      }
+    }
+  }
+
+  // EFFECT: add a passage between the two cells, the first above or left of the second
+  void link(Cell cell1, Cell cell2) {
+    Edge e = new Edge(cell1, cell2, 0);
+    e.restoreEdge();
+    this.edges.add(e);
+  }
+
+  // EFFECT: replace this maze with a new random weighted one of the same size
+  void regenerateWeighted(int bias) {
+    this.resetGrid();
+    this.createWeightedMaze(bias);
+    this.placeEndpoints();
+  }
+
+  // EFFECT: switch between solving corner to corner and solving between the two cells
+  // farthest apart, clearing anything drawn for the old endpoints
+  void toggleFarthest() {
+    this.farthest = !this.farthest;
+    this.clearDrawing();
+    this.placeEndpoints();
+  }
+
+  // how far the animation has got through the replay log
+  int replayPosition() {
+    return this.replayAt;
+  }
+
+  // EFFECT: jump the animation to the given event of the replay log. going forward draws
+  // the events skipped over, and going back works the overlay out again from the start
+  void seek(int position) {
+    if (this.replay == null || this.solvingManually) {
+      return;
+    }
+    int to = Math.max(0, Math.min(position, this.replay.size()));
+    if (to < this.replayAt) {
+      this.replayAt = to;
+      this.redrawOverlay();
+    }
+    while (this.replayAt < to) {
+      this.replayAt += 1;
+      this.drawEvent(this.replayAt - 1);
+    }
+    this.drawing = true;
+  }
+
+  // EFFECT: make the given log, or none, the one the animation plays, from its start
+  void startReplay(ReplayLog log) {
+    this.replay = log;
+    this.replayAt = 0;
+    this.redrawOverlay();
+  }
+
+  // EFFECT: work the overlay out again from the played part of the replay log and the
+  // cells visited by hand
+  void redrawOverlay() {
+    if (this.overlay == null || this.overlay.length != this.cells.size()) {
+      this.overlay = new byte[this.cells.size()];
+    }
+    else {
+      Arrays.fill(this.overlay, Maze.NOT_DRAWN);
+    }
+    this.overlayBlocks = null;
+    for (int e = 0; e < this.replayAt; e++) {
+      this.drawEvent(e);
+    }
+    for (Cell c : this.cellsToDraw) {
+      this.drawCellState(this.indexOf(c), Maze.DRAWN_VISITED);
+    }
+  }
+
+  // EFFECT: show the given event of the replay log in the overlay
+  void drawEvent(int e) {
+    this.drawCellState(this.replay.cell(e),
+        this.replay.onPath(e) ? Maze.DRAWN_PATH : Maze.DRAWN_VISITED);
+  }
+
+  // EFFECT: show the given state in cell i and its block, unless they show more already
+  void drawCellState(int i, byte state) {
+    if (this.overlay == null || this.overlay.length != this.cells.size()) {
+      return;
+    }
+    this.overlay[i] = (byte) Math.max(this.overlay[i], state);
+    if (this.overlayBlocks != null) {
+      int wide = (this.width + this.overlayLod - 1) / this.overlayLod;
+      int b = (i / this.width) / this.overlayLod * wide + (i % this.width) / this.overlayLod;
+      this.overlayBlocks[b] = (byte) Math.max(this.overlayBlocks[b], state);
+    }
+  }
+
+  // what the overlay shows in every cell
+  byte[] overlay() {
+    if (this.overlay == null || this.overlay.length != this.cells.size()) {
+      this.redrawOverlay();
+    }
+    return this.overlay;
+  }
+
+  // what the overlay shows in every block of lod by lod cells, row by row
+  byte[] overlayBlocks() {
+    byte[] cells = this.overlay();
+    if (this.overlayBlocks == null || this.overlayLod != this.lod) {
+      int wide = (this.width + this.lod - 1) / this.lod;
+      this.overlayBlocks = new byte[wide * ((this.height + this.lod - 1) / this.lod)];
+      this.overlayLod = this.lod;
+      for (int i = 0; i < cells.length; i++) {
+        int b = (i / this.width) / this.lod * wide + (i % this.width) / this.lod;
+        this.overlayBlocks[b] = (byte) Math.max(this.overlayBlocks[b], cells[i]);
+      }
+    }
+    return this.overlayBlocks;
+  }
+
+  // EFFECT: play the given replay log, recorded on a maze with these same walls
+  void play(ReplayLog log) {
+    if (log.fingerprint != this.grid().fingerprint()) {
+      throw new IllegalArgumentException("The replay was recorded on a different maze");
+    }
+    this.clearDrawing();
+    this.start = log.start;
+    this.target = log.target;
+    this.currentIndex = this.start;
+    this.startReplay(log);
+    this.restartClock();
+    this.seek(0);
+  }
+
+  // EFFECT: start a new animation back at one step a tick
+  void restartClock() {
+    if (this.clock != null) {
+      this.clock.steps = 1;
+    }
+  }
+
+  // EFFECT: open up the given fraction of this maze's dead ends into loops, using edges
+  // already in the edges list where they are there and adding new ones where they are not
+  void braid(double fraction) {
+    MazeGrid braided = this.grid().braid(fraction, this.rand);
+    for (Edge e : this.edges) {
+      int i = this.indexOf(e.cell1);
+      boolean horizontal = e.cell1.horizontalBetween(e.cell2);
+      if (horizontal ? braided.openRight(i) && e.cell1.right != e
+          : braided.openDown(i) && e.cell1.bottom != e) {
+        e.restoreEdge();
+      }
+    }
+    for (int i = 0; i < this.cells.size(); i++) {
+      Cell c = this.cells.get(i);
+      if (braided.openRight(i) && c.right == null) {
+        Edge e = new Edge(c, this.cells.get(i + 1),
+            braided.rightWeight == null ? 0 : braided.rightWeight[i]);
+        e.restoreEdge();
+        this.edges.add(e);
+      }
+      if (braided.openDown(i) && c.bottom == null) {
+        Edge e = new Edge(c, this.cells.get(i + this.width),
+            braided.downWeight == null ? 0 : braided.downWeight[i]);
+        e.restoreEdge();
+        this.edges.add(e);
+      }
+    }
+    this.walls.changes += 1;
+    this.clearDrawing();
+    this.placeEndpoints();
+  }
+
+  // EFFECT: put the start and target where the current mode wants them, and the player on
+  // the start
+  void placeEndpoints() {
+    if (this.farthest) {
+      int[] pair = this.grid().farthestPair();
+      this.start = pair[0];
+      this.target = pair[1];
+    }
+    else if (this.mask != null) {
+      this.start = this.mask.first();
+      this.target = this.mask.last();
+    }
+    else {
+      this.start = 0;
+      this.target = this.width * this.height - 1;
+    }
+    this.currentIndex = this.start;
+  }
+
+  // EFFECT: clear everything drawn or visited so far and put the player back on the start
+  void clearDrawing() {
+    if (this.cellsToDraw == this.alreadySeen) {
+      this.cellsToDraw = new ArrayList<Cell>();
+    }
+    this.cellsToDraw.clear();
+    this.path.clear();
+    this.correctPath.clear();
+    this.alreadySeen.clear();
+    this.seen.clear();
+    this.toStart = null;
+    this.drawing = false;
+    this.solvingManually = false;
+    this.currentIndex = this.start;
+    this.startReplay(null);
+  }
+
+  // EFFECT: clear everything drawn so far and put back every edge of the full grid with
+  // no weight, reusing the cells and edges already here when they are all present
+  void resetGrid() {
+    this.clearDrawing();
+
+    if (this.cells.size() == this.width * this.height
+        && this.edges.size() == this.gridEdges()) {
+      for (Edge e : this.edges) {
+        e.weight = 0;
+        e.restoreEdge();
       }
     }
+    else {
+      this.cells.clear();
+      this.edges.clear();
+      this.createCells();
+      this.connectCellsX();
+      this.connectCellsY();
+    }
   }
 
   //solve the maze using either BFS or DFS
   HashMap<Cell, Cell> search(boolean dfs) {
+    Solution solved;
+    if (this.lazy == null) {
+      solved = this.solve(dfs ? Solution.DFS : Solution.BFS, this.start, this.target);
+    }
+    else {
+      // a lazy maze is generated as the search goes, and only where it goes
+      solved = this.lazy.search(dfs);
+      for (int k = 0; k < solved.visitedCount(); k++) {
+        this.reveal(solved.visitedAt(k));
+      }
+    }
     HashMap<Cell, Cell> cameFromEdge = new HashMap<Cell, Cell>();
-    Deque<Cell> worklist = new ArrayDeque<Cell>(); // a Queue for BFS, or a Stack for DFS
-    ArrayList<Cell> alreadySeen = new ArrayList<Cell>();
-
-    Cell start = this.cells.get(0);
-    Cell target = this.cells.get(this.width * this.height - 1);
 
-    // Initialize the worklist with the start Cell
-    worklist.add(start);
-    // As long as the worklist isn't empty...
-    while (!worklist.isEmpty()) {
-      Cell next = worklist.remove();
-      if (alreadySeen.contains(next)) {
-        // discard it
+    for (int i = 0; solved.hasParents() && i < this.cells.size(); i++) {
+      if (solved.parent(i) != -1) {
+        cameFromEdge.put(this.cells.get(i), this.cells.get(solved.parent(i)));
       }
-      else if (next == target) {
-        alreadySeen.add(next);
-        this.path = alreadySeen;
-        this.correctPath.add(target);
-        this.reconstruct(cameFromEdge, next);
-        return cameFromEdge;
+    }
+    if (solved.found()) {
+      this.path = new ArrayList<Cell>(solved.visitedCount());
+      for (int k = 0; k < solved.visitedCount(); k++) {
+        this.path.add(this.cells.get(solved.visitedAt(k)));
       }
-      else {
-        alreadySeen.add(next);
-        next.addNeighbors(worklist, alreadySeen, cameFromEdge, dfs);
+      for (int k = 0; k < solved.pathLength(); k++) {
+        this.correctPath.add(this.cells.get(solved.pathAt(k)));
       }
+      this.startReplay(ReplayLog.of(this.grid(), this.start, this.target, solved));
     }
     return cameFromEdge;
   }
 
+  // solve the maze between the given cell indices with the named algorithm, reusing the
+  // result of an earlier identical solve if the walls have not changed since
+  Solution solve(String algorithm, int start, int target) {
+    return this.grid().solve(algorithm, start, target);
+  }
+
+  // how many times the walls have changed so far
+  int wallVersion() {
+    return this.walls.changes;
+  }
+
+  // the compact snapshot of the current walls, rebuilt only after they have changed. the
+  // snapshot carries its own solutions, so a new one starts with none cached. one left by
+  // generate shares its bits with the next maze generated, so it is only good until then
+  MazeGrid grid() {
+    if (this.gridVersion != this.wallVersion()) {
+      this.grid = MazeGrid.of(this);
+      this.gridVersion = this.wallVersion();
+    }
+    return this.grid;
+  }
+
   void reconstruct(HashMap<Cell, Cell> finished, Cell last) {
-    if (finished.get(last).equals(this.cells.get(0))) {
+    if (finished.get(last).equals(this.cells.get(this.start))) {
       this.correctPath.add(finished.get(last));
     }
     else {
@@ -354,16 +893,16 @@ class Maze extends World {
   void createCells() {
     for (int y = 0; y < this.height; y++) {
       for (int x = 0; x < this.width; x++) {
-        Cell toAdd = new Cell(new Posn(x, y));
+        Cell toAdd = new Cell(new Posn(x, y), this.walls);
         this.cells.add(toAdd);
       }
     }
   }
 
-  // EFFECT: create the horizontal edges between every cell in the grid
+  // EFFECT: create the horizontal edges between every pair of active cells in the grid
   void connectCellsX() {
     for (int i = 0; i < this.cells.size(); i++) {
-      if ((i + 1) % this.width != 0) {
+      if ((i + 1) % this.width != 0 && this.active(i) && this.active(i + 1)) {
         Cell c = this.cells.get(i);
         Cell cRight = this.cells.get(i + 1);
         Edge connection = new Edge(c, cRight, 0);
@@ -372,33 +911,119 @@ class Maze extends World {
         this.edges.add(connection);
       }
     }
+    this.walls.changes += 1;
   }
 
-  // EFFECT: create the vertical edges between every cell in the grid
+  // EFFECT: create the vertical edges between every pair of active cells in the grid
   void connectCellsY() {
     for (int i = 0; i < this.cells.size() - this.width; i++) {
-      Cell c = this.cells.get(i);
-      Cell cBottom = this.cells.get(i + this.width);
-      Edge connection = new Edge(c, cBottom, 0);
-      c.updateBottom(connection);
-      cBottom.updateTop(connection);
-      this.edges.add(connection);
+      if (this.active(i) && this.active(i + this.width)) {
+        Cell c = this.cells.get(i);
+        Cell cBottom = this.cells.get(i + this.width);
+        Edge connection = new Edge(c, cBottom, 0);
+        c.updateBottom(connection);
+        cBottom.updateTop(connection);
+        this.edges.add(connection);
+      }
+    }
+    this.walls.changes += 1;
+  }
+
+  // EFFECT: connect only the passages recorded in the given snapshot, so the
+  // edges list holds the edges of the spanning tree and nothing else. edges already in the
+  // list are unlinked ones left by regenerate, and are relinked to the new passages in
+  // order before any new edge is made, so regenerating a maze allocates none
+  void restore(MazeGrid grid) {
+    int used = 0;
+    for (int i = 0; i < this.cells.size(); i++) {
+      if (grid.openRight(i)) {
+        Cell c = this.cells.get(i);
+        Cell cRight = this.cells.get(i + 1);
+        Edge connection = this.reuseEdge(used, c, cRight);
+        c.updateRight(connection);
+        cRight.updateLeft(connection);
+        used += 1;
+      }
+    }
+    for (int i = 0; i < this.cells.size() - this.width; i++) {
+      if (grid.openDown(i)) {
+        Cell c = this.cells.get(i);
+        Cell cBottom = this.cells.get(i + this.width);
+        Edge connection = this.reuseEdge(used, c, cBottom);
+        c.updateBottom(connection);
+        cBottom.updateTop(connection);
+        used += 1;
+      }
+    }
+    // a braided or fully connected list had more edges than a spanning tree needs
+    this.edges.subList(used, this.edges.size()).clear();
+    this.walls.changes += 1;
+    // the edges just made are unweighted, so a grid without weights is already the
+    // snapshot grid() would take of them
+    if (grid.rightWeight == null && grid.mask == this.mask) {
+      this.grid = grid;
+      this.gridVersion = this.wallVersion();
+    }
+  }
+
+  // EFFECT: point the edge at the given index of the edges list between the two cells,
+  // adding a new one when the list is not that long yet
+  Edge reuseEdge(int index, Cell cell1, Cell cell2) {
+    if (index < this.edges.size()) {
+      Edge e = this.edges.get(index);
+      e.cell1 = cell1;
+      e.cell2 = cell2;
+      e.weight = 0;
+      return e;
     }
+    Edge e = new Edge(cell1, cell2, 0);
+    this.edges.add(e);
+    return e;
   }
 
 
-  //The onTick function, draws the board as necessary
+  //The onTick function, draws the board as necessary, replaySpeed steps at a time
   public void onTick() {
-    if (this.path.size() > 0) {
-      this.cellsToDraw.add(this.path.get(0));
-      this.path.remove(0);
+    long began = System.nanoTime();
+    int steps = this.clock == null ? this.replaySpeed : this.replaySpeed * this.clock.steps;
+    for (int i = 0; i < steps; i++) {
+      this.step();
+      if (!this.drawing) {
+        break;
+      }
+    }
+    if (this.clock != null) {
+      this.clock.ticked(System.nanoTime() - began);
     }
-    else if (this.correctPath.size() > 0) {
-      this.correctCellsToDraw.add(this.correctPath.get(0));
-      this.correctPath.remove(0);
+  }
+
+  // the ith cell drawn: first the played events of the replay log, then the cells visited
+  // by hand
+  Cell drawnCell(int i) {
+    if (i < this.replayAt) {
+      return this.cells.get(this.replay.cell(i));
+    }
+    return this.cellsToDraw.get(i - this.replayAt);
+  }
+
+  // the number of cells the animation still has to draw
+  int eventsLeft() {
+    return this.replay == null ? 0 : this.replay.size() - this.replayAt;
+  }
+
+  // EFFECT: draw the next cell of the animation by moving on one event of the replay log
+  void step() {
+    if (this.eventsLeft() > 0) {
+      this.replayAt += 1;
+      this.drawEvent(this.replayAt - 1);
     }
-    else if (this.alreadySeen.size() > 0 && this.currentIndex != this.width * this.height - 1) {
-      this.cellsToDraw = this.alreadySeen;
+    else if (this.alreadySeen.size() > 0 && this.currentIndex != this.target) {
+      if (this.cellsToDraw != this.alreadySeen) {
+        this.cellsToDraw = this.alreadySeen;
+        for (Cell c : this.alreadySeen) {
+          this.drawCellState(this.indexOf(c), Maze.DRAWN_VISITED);
+        }
+      }
 
     } else {
       this.drawing = false;
@@ -407,36 +1032,80 @@ class Maze extends World {
 
   //Handles key events, either r d b m or the arrow keys
   public void onKeyEvent(String key) {
+    if (key.equals("=")) {
+      this.zoomIn();
+    }
+    else if (key.equals("-")) {
+      this.zoomOut();
+    }
+    else if (key.equals("0")) {
+      this.resetView();
+    }
+    else if (key.equals("4")) {
+      this.pan(-1, 0);
+    }
+    else if (key.equals("6")) {
+      this.pan(1, 0);
+    }
+    else if (key.equals("8")) {
+      this.pan(0, -1);
+    }
+    else if (key.equals("2")) {
+      this.pan(0, 1);
+    }
+
     if (key.equals("r")) {
-      this.cells = new ArrayList<Cell>();
-      this.edges = new ArrayList<Edge>();
-      this.cellsToDraw = new ArrayList<Cell>();
-      this.path = new ArrayList<Cell>();
-      this.drawing = false;
-      this.correctCellsToDraw = new ArrayList<Cell>();
-      this.correctPath = new ArrayList<Cell>();
-      this.drawing = false;
-      this.solvingManually = false;
-      this.currentIndex = 0;
-      this.alreadySeen = new ArrayList<Cell>();
-      this.createCells();
-      this.connectCellsX();
-      this.connectCellsY();
-      this.createMaze();
+      this.regenerate();
+    }
+    // weights, the farthest pair and braiding all need the whole maze, so a lazy one
+    // does without them
+    else if (key.equals("w") && this.lazy == null) {
+      this.regenerateWeighted(MazeGrid.HORIZONTAL_BIAS);
+    }
+    else if (key.equals("f") && !this.drawing && this.lazy == null) {
+      this.toggleFarthest();
+    }
+    else if (key.equals("l") && !this.drawing && this.lazy == null) {
+      this.braid(Maze.BRAID_FRACTION);
+    }
+    else if (key.equals("h")) {
+      this.heatmap = !this.heatmap;
+    }
+    else if (key.equals("g")) {
+      this.rasterMode = !this.rasterMode;
+    }
+    else if (key.equals(",")) {
+      this.seek(this.replayPosition() - Maze.SEEK_STEP * this.replaySpeed);
+    }
+    else if (key.equals(".")) {
+      this.seek(this.replayPosition() + Maze.SEEK_STEP * this.replaySpeed);
+    }
+    else if (key.equals("[")) {
+      this.replaySpeed = Math.max(1, this.replaySpeed / 2);
+    }
+    else if (key.equals("]")) {
+      this.replaySpeed = Math.min(Maze.MAX_REPLAY_SPEED, this.replaySpeed * 2);
+    }
+    else if (key.equals("p")) {
+      this.showTimes = !this.showTimes;
     }
 
     if (!this.drawing) {
       if (key.equals("d") && !this.solvingManually) {
         this.drawing = true;
+        this.restartClock();
         this.search(true);
       }
       else if (key.equals("b") && !this.solvingManually) {
         this.drawing = true;
+        this.restartClock();
         this.search(false);
       }
       else if (key.equals("m")) {
         this.solvingManually = true;
         this.drawing = true;
+        this.startReplay(null);
+        this.toStart = this.grid().parents(this.start);
       }
     }
     if (this.solvingManually) {
@@ -452,121 +1121,466 @@ class Maze extends World {
     }
   }
 
-  //Update the current index if possible
+  //Update the current index if possible. dir is 1 right, 2 down, 3 left or 4 up, one
+  //more than the direction MazeGrid.step takes. in a lazy maze the cell moved into is
+  //generated then, so its ways out show up as the player arrives
   void maybeMove(int dir) {
-    Cell target = this.cells.get(this.width * this.height - 1);
-
-    if (dir == 1 && this.cells.get(this.currentIndex).right != null) {
-      this.currentIndex += 1;
-      Cell next = this.cells.get(this.currentIndex);
-
-      if (this.alreadySeen.contains(next)) {
-        //Do nothing
-      }
-      else if (next == target) {
-        this.alreadySeen.add(next);
-
-        this.reconstruct(this.search(true), target);
-      } else {
-        this.alreadySeen.add(next);
-
-      }
+    int next = this.lazy == null ? this.grid().step(this.currentIndex, dir - 1)
+        : this.lazy.step(this.currentIndex, dir - 1);
+    if (next < 0) {
+      return;
     }
-
-    else if (dir == 2 && this.cells.get(this.currentIndex).bottom != null) {
-      this.currentIndex += this.width;
-      Cell next = this.cells.get(this.currentIndex);
-
-      if (this.alreadySeen.contains(next)) {
-        //Do nothing
+    this.currentIndex = next;
+    if (this.lazy != null) {
+      this.reveal(next);
+    }
+    if (!this.seen.get(next)) {
+      this.seen.set(next);
+      this.alreadySeen.add(this.cells.get(next));
+      if (this.cellsToDraw == this.alreadySeen) {
+        this.drawCellState(next, Maze.DRAWN_VISITED);
       }
-      else if (next == target) {
-        this.alreadySeen.add(next);
-
-
-        this.reconstruct(this.search(true), target);
-      } else {
-        this.alreadySeen.add(next);
-
+      if (next == this.target) {
+        this.showAnswer();
       }
     }
+  }
 
-    else if (dir == 3 && this.cells.get(this.currentIndex).left != null) {
-      this.currentIndex -= 1;
-      Cell next = this.cells.get(this.currentIndex);
-
-      if (this.alreadySeen.contains(next)) {
-        //Do nothing
-      }
-      else if (next == target) {
-        this.alreadySeen.add(next);
-        this.reconstruct(this.search(true), next);
-      } else {
-        this.alreadySeen.add(next);
-
-      }
+  // EFFECT: queue up the path from the target back to the start to be drawn, following
+  // the parents found when manual solving began, as a replay log of just the path
+  void showAnswer() {
+    if (this.toStart == null) {
+      this.toStart = this.grid().parents(this.start);
+    }
+    this.correctPath.clear();
+    for (int i = this.target; i >= 0; i = i == this.start ? -1 : this.toStart[i]) {
+      this.correctPath.add(this.cells.get(i));
     }
+    int[] answer = new int[this.correctPath.size()];
+    for (int k = 0; k < answer.length; k++) {
+      answer[k] = this.indexOf(this.correctPath.get(k));
+    }
+    this.startReplay(ReplayLog.of(this.grid(), this.start, this.target,
+        new Solution(new int[0], answer, null)));
+  }
 
-    else if (dir == 4 && this.cells.get(this.currentIndex).top != null) {
-      this.currentIndex -= this.width;
-      Cell next = this.cells.get(this.currentIndex);
-
-      if (this.alreadySeen.contains(next)) {
-        //Do nothing
-      }
-      else if (next == target) {
-        this.alreadySeen.add(next);
-        this.reconstruct(this.search(true), next);
-      } else {
-        this.alreadySeen.add(next);
-
-      }
+  // draw the part of the maze inside the window. only the cells the camera can see are
+  // looked at, so the cost of a frame depends on the window and not on the maze
+  @Override
+  public WorldScene makeScene() {
+    if (this.clock == null) {
+      return this.drawScene();
     }
+    long began = System.nanoTime();
+    WorldScene s = this.drawScene();
+    this.clock.rendered(System.nanoTime() - began, this.drawing ? this.eventsLeft() : 0);
+    if (this.showTimes) {
+      s.placeImageXY(new TextImage(this.clock.report(), 14, Color.BLACK),
+          this.PIXEL_WIDTH / 2, 12);
+    }
+    return s;
   }
 
-  // draw the whole maze
-  @Override
-  public WorldScene makeScene() {
+  // draw the frame with whichever backend is switched on
+  WorldScene drawScene() {
+    if (this.rasterMode) {
+      return this.drawRaster();
+    }
     WorldScene s = new WorldScene(this.PIXEL_WIDTH, this.PIXEL_HEIGHT);
+    if (this.lod > 1) {
+      return this.drawBlocks(s);
+    }
     WorldImage hehe;
+    int x0 = this.viewX;
+    int y0 = this.viewY;
+    int x1 = Math.min(this.width, x0 + this.visibleColumns());
+    int y1 = Math.min(this.height, y0 + this.visibleRows());
 
     s = this.drawBorderAndBackground(s);
+    if (this.heatmap) {
+      s = this.drawHeatmap(s);
+    }
     s = this.drawStartAndEnd(s);
 
-    for (int i = 0; i < this.cellsToDraw.size(); i++) {
-      Cell c = this.cellsToDraw.get(i);
-      if (this.solvingManually && c == this.cells.get(this.currentIndex)
-          && c != this.cells.get(0)) {
-        hehe = new RectangleImage(this.cellSize, this.cellSize, "solid", Color.RED);
-      } else if (c != this.cells.get(0)) {
-        hehe = new RectangleImage(this.cellSize, this.cellSize, "solid", new Color(102, 178, 255));
-      } else {
-        hehe = new RectangleImage(this.cellSize, this.cellSize, "solid", new Color(102, 204, 0));
+    // the visited cells and the path, read from the overlay for just the cells in view
+    byte[] overlay = this.overlay();
+    for (int y = y0; y < y1; y++) {
+      for (int x = x0; x < x1; x++) {
+        int i = y * this.width + x;
+        if (overlay[i] == Maze.NOT_DRAWN) {
+          continue;
+        }
+        if (overlay[i] == Maze.DRAWN_PATH) {
+          hehe = new RectangleImage(this.cellSize, this.cellSize, "solid", new Color(0, 102, 204));
+        } else if (this.solvingManually && i == this.currentIndex && i != this.start) {
+          hehe = new RectangleImage(this.cellSize, this.cellSize, "solid", Color.RED);
+        } else if (i != this.start) {
+          hehe = new RectangleImage(this.cellSize, this.cellSize, "solid", new Color(102, 178, 255));
+        } else {
+          hehe = new RectangleImage(this.cellSize, this.cellSize, "solid", new Color(102, 204, 0));
+        }
+        s.placeImageXY(hehe, this.cellSize * (x - x0) + this.cellSize / 2,
+            this.cellSize * (y - y0) + this.cellSize / 2);
+      }
+    }
+    if (overlay[this.start] == Maze.DRAWN_PATH) {
+      WorldImage done = new TextImage("The maze is solved.", 30, Color.BLACK);
+      s.placeImageXY(done, 175, 550);
+    }
+
+    WorldImage outside = new RectangleImage(this.cellSize, this.cellSize, "solid", Color.DARK_GRAY);
+    for (int y = y0; y < y1 && this.mask != null; y++) {
+      for (int x = x0; x < x1; x++) {
+        if (!this.active(y * this.width + x)) {
+          s.placeImageXY(outside, this.cellSize * (x - x0) + this.cellSize / 2,
+              this.cellSize * (y - y0) + this.cellSize / 2);
+        }
+      }
+    }
+
+    return this.drawWalls(s, x0, y0, x1, y1);
+  }
+
+  // draw the walls of the cells from (x0, y0) up to but not including (x1, y1) as one image.
+  // the walls are painted on a clear raster that is kept until they or the view change, so
+  // a frame of the animation places a single image for all of them rather than a line for
+  // every straight run
+  WorldScene drawWalls(WorldScene s, int x0, int y0, int x1, int y1) {
+    int[] key = {this.wallVersion(), x0, y0, x1, y1, this.cellSize};
+    if (this.wallLayer == null) {
+      this.wallLayer = new MazeRaster(this.PIXEL_WIDTH, this.PIXEL_HEIGHT);
+    }
+    if (!Arrays.equals(key, this.wallLayerKey)) {
+      this.wallLayer.fill(0, 0, this.wallLayer.width, this.wallLayer.height, 0);
+      this.paintWalls(this.wallLayer, x0, y0, x1, y1, Color.BLACK.getRGB());
+      this.wallLayer.image();
+      this.wallLayerKey = key;
+    }
+    s.placeImageXY(this.wallLayer.image, this.PIXEL_WIDTH / 2, this.PIXEL_HEIGHT / 2);
+    return s;
+  }
+
+  // EFFECT: paint the walls of the cells from (x0, y0) up to but not including (x1, y1) in
+  // the given raster, in the given color. a wall shared by two cells is painted once, and
+  // each straight run of wall along a grid line as one pixel wide line that takes in both
+  // ends
+  void paintWalls(MazeRaster r, int x0, int y0, int x1, int y1, int argb) {
+    int size = this.cellSize;
+    for (int y = y0; y <= y1; y++) {
+      int run = x0;
+      for (int x = x0; x <= x1; x++) {
+        if (x == x1 || !this.wallAbove(x, y)) {
+          if (x > run) {
+            r.fill((run - x0) * size, (y - y0) * size, (x - run) * size + 1, 1, argb);
+          }
+          run = x + 1;
+        }
+      }
+    }
+    for (int x = x0; x <= x1; x++) {
+      int run = y0;
+      for (int y = y0; y <= y1; y++) {
+        if (y == y1 || !this.wallLeft(x, y)) {
+          if (y > run) {
+            r.fill((x - x0) * size, (run - y0) * size, 1, (y - run) * size + 1, argb);
+          }
+          run = y + 1;
+        }
       }
-      s.placeImageXY(hehe, this.cellSize * c.coord.x + this.cellSize / 2,
-          this.cellSize * c.coord.y + this.cellSize / 2);
     }
+  }
+
+  // is there a wall along the top of the cell at (x, y)? y may be the height, for the
+  // bottom edge of the last row. a wall is drawn wherever an active cell has no passage
+  boolean wallAbove(int x, int y) {
+    int below = y * this.width + x;
+    int above = below - this.width;
+    return (y > 0 && this.active(above) && this.cells.get(above).bottom == null)
+        || (y < this.height && this.active(below) && this.cells.get(below).top == null);
+  }
 
-    for (int i = 0; i < this.correctCellsToDraw.size(); i++) {
-      Cell c1 = this.correctCellsToDraw.get(i);
-      WorldImage cell =
-          new RectangleImage(this.cellSize, this.cellSize, "solid", new Color(0, 102, 204));
-      s.placeImageXY(cell, this.cellSize * c1.coord.x + this.cellSize / 2,
-          this.cellSize * c1.coord.y + this.cellSize / 2);
+  // is there a wall along the left of the cell at (x, y)? x may be the width, for the
+  // right edge of the last column
+  boolean wallLeft(int x, int y) {
+    int right = y * this.width + x;
+    int left = right - 1;
+    return (x > 0 && this.active(left) && this.cells.get(left).right == null)
+        || (x < this.width && this.active(right) && this.cells.get(right).left == null);
+  }
 
-      if (c1.equals(this.cells.get(0))) {
-        WorldImage done = new TextImage("The maze is solved.", 30, Color.BLACK);
-        s.placeImageXY(done, 175, 550);
+  // paint the same frame makeScene builds straight into one raster, and hand the world
+  // just that image, plus the message once the maze is solved. nothing is allocated per
+  // cell, so a frame costs about as much as filling the window's pixels
+  WorldScene drawRaster() {
+    if (this.raster == null) {
+      this.raster = new MazeRaster(this.PIXEL_WIDTH, this.PIXEL_HEIGHT);
+    }
+    MazeRaster r = this.raster;
+    int size = this.cellSize;
+    r.fill(0, 0, r.width, r.height, Color.WHITE.getRGB());
+
+    if (this.lod > 1) {
+      int[] open = this.pyramid(Integer.numberOfTrailingZeros(this.lod));
+      int blocksWide = (this.width + this.lod - 1) / this.lod;
+      int bx0 = this.viewX / this.lod;
+      int by0 = this.viewY / this.lod;
+      int bx1 = Math.min(blocksWide, bx0 + this.PIXEL_WIDTH / size + 1);
+      int by1 = Math.min((this.height + this.lod - 1) / this.lod,
+          by0 + this.PIXEL_HEIGHT / size + 1);
+      for (int by = by0; by < by1; by++) {
+        for (int bx = bx0; bx < bx1; bx++) {
+          int shade = 255 * open[by * blocksWide + bx] / (4 * this.lod * this.lod);
+          r.fill((bx - bx0) * size, (by - by0) * size, size, size,
+              0xFF000000 | shade << 16 | shade << 8 | shade);
+        }
+      }
+      byte[] drawn = this.overlayBlocks();
+      for (int by = by0; by < by1; by++) {
+        for (int bx = bx0; bx < bx1; bx++) {
+          byte state = drawn[by * blocksWide + bx];
+          if (state != Maze.NOT_DRAWN) {
+            r.fill((bx - bx0) * size, (by - by0) * size, size, size,
+                state == Maze.DRAWN_PATH ? Maze.PATH_COLOR.getRGB()
+                    : Maze.VISITED_COLOR.getRGB());
+          }
+        }
+      }
+      r.fill(((this.start % this.width) / this.lod - bx0) * size,
+          ((this.start / this.width) / this.lod - by0) * size, size, size,
+          Maze.START_COLOR.getRGB());
+      r.fill(((this.target % this.width) / this.lod - bx0) * size,
+          ((this.target / this.width) / this.lod - by0) * size, size, size,
+          Maze.TARGET_COLOR.getRGB());
+    }
+    else {
+      int x0 = this.viewX;
+      int y0 = this.viewY;
+      int x1 = Math.min(this.width, x0 + this.visibleColumns());
+      int y1 = Math.min(this.height, y0 + this.visibleRows());
+      r.fill(-x0 * size, -y0 * size, this.width * size, this.height * size,
+          new Color(192, 192, 192).getRGB());
+      if (this.heatmap) {
+        this.distanceFields();
+        int most = this.mostFromStart;
+        for (int y = y0; y < y1; y++) {
+          for (int x = x0; x < x1; x++) {
+            int d = this.fromStart[y * this.width + x];
+            if (d >= 0) {
+              r.fill((x - x0) * size, (y - y0) * size, size, size,
+                  Maze.heatColor(d, most).getRGB());
+            }
+          }
+        }
+      }
+      r.fill((this.start % this.width - x0) * size + 1, (this.start / this.width - y0) * size + 1,
+          size - 1, size - 1, Maze.START_COLOR.getRGB());
+      r.fill((this.target % this.width - x0) * size + 1,
+          (this.target / this.width - y0) * size + 1, size - 1, size - 1,
+          Maze.TARGET_COLOR.getRGB());
+      byte[] drawn = this.overlay();
+      for (int y = y0; y < y1; y++) {
+        for (int x = x0; x < x1; x++) {
+          int i = y * this.width + x;
+          if (drawn[i] == Maze.NOT_DRAWN) {
+            continue;
+          }
+          Color color = Maze.VISITED_COLOR;
+          if (drawn[i] == Maze.DRAWN_PATH) {
+            color = Maze.PATH_COLOR;
+          }
+          else if (i == this.start) {
+            color = Maze.START_COLOR;
+          }
+          else if (this.solvingManually && i == this.currentIndex) {
+            color = Color.RED;
+          }
+          r.fill((x - x0) * size, (y - y0) * size, size, size, color.getRGB());
+        }
+      }
+      for (int y = y0; y < y1 && this.mask != null; y++) {
+        for (int x = x0; x < x1; x++) {
+          if (!this.active(y * this.width + x)) {
+            r.fill((x - x0) * size, (y - y0) * size, size, size, Color.DARK_GRAY.getRGB());
+          }
+        }
       }
+
+      this.paintWalls(r, x0, y0, x1, y1, Color.BLACK.getRGB());
+    }
+
+    WorldScene s = new WorldScene(this.PIXEL_WIDTH, this.PIXEL_HEIGHT);
+    s.placeImageXY(r.image(), this.PIXEL_WIDTH / 2, this.PIXEL_HEIGHT / 2);
+    if (this.overlay()[this.start] == Maze.DRAWN_PATH) {
+      s.placeImageXY(new TextImage("The maze is solved.", 30, Color.BLACK), 175, 550);
     }
+    return s;
+  }
 
-    for (Cell c : this.cells) {
-      s = c.drawCell(s, this.cellSize);
+  // draw the maze zoomed out past one cell a square: each square of cellSize pixels is one
+  // block of lod by lod cells, shaded by how many passages it holds, with the visited
+  // cells, the path and the ends drawn over it block by block
+  WorldScene drawBlocks(WorldScene s) {
+    int[] open = this.pyramid(Integer.numberOfTrailingZeros(this.lod));
+    int blocksWide = (this.width + this.lod - 1) / this.lod;
+    int bx0 = this.viewX / this.lod;
+    int by0 = this.viewY / this.lod;
+    int bx1 = Math.min(blocksWide, bx0 + this.PIXEL_WIDTH / this.cellSize + 1);
+    int by1 = Math.min((this.height + this.lod - 1) / this.lod,
+        by0 + this.PIXEL_HEIGHT / this.cellSize + 1);
+
+    for (int by = by0; by < by1; by++) {
+      for (int bx = bx0; bx < bx1; bx++) {
+        // at most four passages a cell, so this is the share of the walls knocked down
+        int shade = 255 * open[by * blocksWide + bx] / (4 * this.lod * this.lod);
+        s = this.drawBlock(s, bx, by, new Color(shade, shade, shade));
+      }
+    }
+    byte[] drawn = this.overlayBlocks();
+    for (int by = by0; by < by1; by++) {
+      for (int bx = bx0; bx < bx1; bx++) {
+        byte state = drawn[by * blocksWide + bx];
+        if (state != Maze.NOT_DRAWN) {
+          s = this.drawBlock(s, bx, by,
+              state == Maze.DRAWN_PATH ? new Color(0, 102, 204) : new Color(102, 178, 255));
+        }
+      }
     }
+    s = this.drawBlock(s, (this.start % this.width) / this.lod,
+        (this.start / this.width) / this.lod, new Color(102, 204, 0));
+    return this.drawBlock(s, (this.target % this.width) / this.lod,
+        (this.target / this.width) / this.lod, new Color(153, 0, 153));
+  }
 
+  // draw the block at the given block coordinates in the given color, if it is in view
+  WorldScene drawBlock(WorldScene s, int bx, int by, Color color) {
+    int px = (bx - this.viewX / this.lod) * this.cellSize;
+    int py = (by - this.viewY / this.lod) * this.cellSize;
+    if (px >= 0 && py >= 0 && px < this.PIXEL_WIDTH && py < this.PIXEL_HEIGHT) {
+      s.placeImageXY(new RectangleImage(this.cellSize, this.cellSize, "solid", color),
+          px + this.cellSize / 2, py + this.cellSize / 2);
+    }
     return s;
   }
 
+  // the number of passages in each block of 2^level by 2^level cells, row by row. level 0
+  // is every cell's own passages and each level above adds up four blocks of the one below
+  int[] pyramid(int level) {
+    if (this.pyramid == null || this.pyramidVersion != this.wallVersion()) {
+      MazeGrid g = this.grid();
+      int[] cells = new int[this.cells.size()];
+      for (int i = 0; i < cells.length; i++) {
+        cells[i] = g.degree(i);
+      }
+      this.pyramid = new ArrayList<int[]>();
+      this.pyramid.add(cells);
+      this.pyramidVersion = this.wallVersion();
+    }
+    while (this.pyramid.size() <= level) {
+      int k = this.pyramid.size() - 1;
+      int[] below = this.pyramid.get(k);
+      int wide = (this.width + (1 << k) - 1) >> k;
+      int high = (this.height + (1 << k) - 1) >> k;
+      int upWide = (wide + 1) / 2;
+      int[] above = new int[upWide * ((high + 1) / 2)];
+      for (int y = 0; y < high; y++) {
+        for (int x = 0; x < wide; x++) {
+          above[(y / 2) * upWide + x / 2] += below[y * wide + x];
+        }
+      }
+      this.pyramid.add(above);
+    }
+    return this.pyramid.get(level);
+  }
+
+  // the number of columns of cells the window has room for, counting a partly shown one
+  int visibleColumns() {
+    return (this.PIXEL_WIDTH + this.cellSize - 1) / this.cellSize * this.lod;
+  }
+
+  // the number of rows of cells the window has room for, counting a partly shown one
+  int visibleRows() {
+    return (this.PIXEL_HEIGHT + this.cellSize - 1) / this.cellSize * this.lod;
+  }
+
+  // is the cell at the given coordinates inside the camera's view?
+  boolean visible(int x, int y) {
+    return x >= this.viewX && y >= this.viewY
+        && x < this.viewX + this.visibleColumns() && y < this.viewY + this.visibleRows();
+  }
+
+  // the size of a cell that fits the whole maze in the window, rounded down to even
+  int fitCellSize() {
+    int size = Math.min(this.PIXEL_WIDTH / this.width, this.PIXEL_HEIGHT / this.height);
+    return size % 2 == 1 ? size - 1 : size;
+  }
+
+  // EFFECT: zoom in on the middle of the view, first back out of blocks and then doubling
+  // the cells up to MAX_CELL_SIZE pixels
+  void zoomIn() {
+    int cx = this.viewX + this.visibleColumns() / 2;
+    int cy = this.viewY + this.visibleRows() / 2;
+    if (this.lod > 1) {
+      this.lod /= 2;
+    }
+    else if (this.cellSize * 2 <= Maze.MAX_CELL_SIZE) {
+      this.cellSize *= 2;
+    }
+    this.lookAt(cx, cy);
+  }
+
+  // EFFECT: zoom out from the middle of the view, halving the cells while they stay at
+  // least MIN_CELL_SIZE pixels and then grouping them into blocks, until the whole maze
+  // is in view
+  void zoomOut() {
+    if (this.visibleColumns() >= this.width && this.visibleRows() >= this.height) {
+      return;
+    }
+    int cx = this.viewX + this.visibleColumns() / 2;
+    int cy = this.viewY + this.visibleRows() / 2;
+    if (this.cellSize / 2 >= Maze.MIN_CELL_SIZE) {
+      this.cellSize /= 2;
+    }
+    else {
+      this.lod *= 2;
+    }
+    this.lookAt(cx, cy);
+  }
+
+  // EFFECT: move the view by the given fraction of itself in each direction
+  void pan(int dx, int dy) {
+    this.viewX += dx * Math.max(1, this.visibleColumns() / 4);
+    this.viewY += dy * Math.max(1, this.visibleRows() / 4);
+    this.clampView();
+  }
+
+  // EFFECT: put the given cell in the middle of the view, as near as the edges allow
+  void lookAt(int x, int y) {
+    this.viewX = x - this.visibleColumns() / 2;
+    this.viewY = y - this.visibleRows() / 2;
+    this.clampView();
+  }
+
+  // EFFECT: keep the view from going past the edges of the maze
+  void clampView() {
+    this.viewX = Math.max(0, Math.min(this.viewX, this.width - this.visibleColumns()));
+    this.viewY = Math.max(0, Math.min(this.viewY, this.height - this.visibleRows()));
+  }
+
+  // EFFECT: go back to showing the whole maze. a maze too big to give every cell two
+  // pixels starts out in blocks
+  void resetView() {
+    this.cellSize = this.fitCellSize();
+    this.lod = 1;
+    this.viewX = 0;
+    this.viewY = 0;
+    if (this.cellSize == 0) {
+      this.cellSize = Maze.MIN_CELL_SIZE;
+      while (this.visibleColumns() < this.width || this.visibleRows() < this.height) {
+        this.lod *= 2;
+      }
+    }
+  }
+
   // draw the background and border of the maze
   WorldScene drawBorderAndBackground(WorldScene s) {
     WorldImage border = new RectangleImage(
@@ -580,26 +1594,84 @@ class Maze extends World {
         "solid",
         new Color(192, 192, 192));
 
-    s.placeImageXY(
-        bg, (this.width * this.cellSize) / 2, (this.height * this.cellSize) / 2);
-    s.placeImageXY(border, (this.width * this.cellSize) / 2, (this.height * this.cellSize) / 2);
+    int cx = (this.width * this.cellSize) / 2 - this.viewX * this.cellSize;
+    int cy = (this.height * this.cellSize) / 2 - this.viewY * this.cellSize;
+    s.placeImageXY(bg, cx, cy);
+    s.placeImageXY(border, cx, cy);
 
 
     return s;
   }
 
-  // color the top left corner green and the bottom right corner purple
+  // shade every reachable cell by how far it is from the start, from pale yellow next to it
+  // to dark red at the farthest
+  WorldScene drawHeatmap(WorldScene s) {
+    this.distanceFields();
+    int x1 = Math.min(this.width, this.viewX + this.visibleColumns());
+    int y1 = Math.min(this.height, this.viewY + this.visibleRows());
+    for (int y = this.viewY; y < y1; y++) {
+      for (int x = this.viewX; x < x1; x++) {
+        int d = this.fromStart[y * this.width + x];
+        if (d >= 0) {
+          s.placeImageXY(
+              new RectangleImage(this.cellSize, this.cellSize, "solid",
+                  Maze.heatColor(d, this.mostFromStart)),
+              (x - this.viewX) * this.cellSize + this.cellSize / 2,
+              (y - this.viewY) * this.cellSize + this.cellSize / 2);
+        }
+      }
+    }
+    return s;
+  }
+
+  // the color of a cell the given distance from the start, when the farthest cell is most
+  // steps away
+  static Color heatColor(int distance, int most) {
+    int t = most == 0 ? 0 : distance * 255 / most;
+    return new Color(255 - t * 65 / 255, 240 - t * 220 / 255, 160 - t * 120 / 255);
+  }
+
+  // EFFECT: work out the distances from the start and from the target in fromStart and
+  // fromTarget, and the largest from the start, reusing the arrays from last time. the
+  // fields are only worked out again once the walls, the start or the target have changed,
+  // so a frame with the heatmap on still only costs what the window holds
+  void distanceFields() {
+    int n = this.cells.size();
+    if (this.fromStart != null && this.fromStart.length == n
+        && this.fieldsVersion == this.wallVersion() && this.fieldsStart == this.start
+        && this.fieldsTarget == this.target) {
+      return;
+    }
+    if (this.fromStart == null || this.fromStart.length != n) {
+      this.fromStart = new int[n];
+      this.fromTarget = new int[n];
+    }
+    this.grid().distances(this.start, this.target, this.fromStart, this.fromTarget);
+    int most = 0;
+    for (int d : this.fromStart) {
+      most = Math.max(most, d);
+    }
+    this.mostFromStart = most;
+    this.fieldsVersion = this.wallVersion();
+    this.fieldsStart = this.start;
+    this.fieldsTarget = this.target;
+  }
+
+  // color the start cell green and the target cell purple
   WorldScene drawStartAndEnd(WorldScene s) {
     WorldImage topLeft =
         new RectangleImage(this.cellSize - 1, this.cellSize - 1, "solid", new Color(102, 204, 0));
     WorldImage bottomRight =
         new RectangleImage(this.cellSize - 1, this.cellSize - 1, "solid", new Color(153, 0, 153));
 
-    s.placeImageXY(topLeft, this.cellSize / 2 + 1, this.cellSize / 2 + 1);
+    s.placeImageXY(
+        topLeft,
+        (this.start % this.width - this.viewX) * this.cellSize + this.cellSize / 2 + 1,
+        (this.start / this.width - this.viewY) * this.cellSize + this.cellSize / 2 + 1);
     s.placeImageXY(
         bottomRight,
-        this.width * this.cellSize - this.cellSize / 2 + 1,
-        this.height * this.cellSize - this.cellSize / 2 + 1);
+        (this.target % this.width - this.viewX + 1) * this.cellSize - this.cellSize / 2 + 1,
+        (this.target / this.width - this.viewY + 1) * this.cellSize - this.cellSize / 2 + 1);
 
     return s;
   }
@@ -607,13 +1679,156 @@ class Maze extends World {
   public static void main(String[] args) {
     ExamplesMaze m = new ExamplesMaze();
     try {
-      m.testBigBang(new Tester(), Integer.parseInt(args[0]), Integer.parseInt(args[1]));
+      m.testBigBang(new Tester(), Integer.parseInt(args[0]), Integer.parseInt(args[1]),
+          args.length > 2 && args[2].equals("lazy"));
     } catch (ArrayIndexOutOfBoundsException e) {
       System.out.println("Not enough arguments");
     }
   }
 }
 
+// paces an animation to a frame rate. every frame it is told how long the tick and the
+// drawing took and how much animation is left, and while something is animating it grows
+// the number of steps a tick plays while frames come in under three quarters of their
+// budget and cuts it back by a quarter whenever one goes over, never past what is left to
+// play, so big mazes stop crawling. the last SAMPLES frame times are kept for percentiles
+class FrameClock {
+  static final int SAMPLES = 1024;
+  static final int MAX_STEPS = 1 << 20;
+
+  final int fps;
+  final long budget;
+  final long[] frames;
+  long count;
+  long tickNanos;
+  int steps;
+
+  FrameClock(int fps) {
+    this.fps = fps;
+    this.budget = 1000000000L / fps;
+    this.frames = new long[FrameClock.SAMPLES];
+    this.count = 0;
+    this.tickNanos = 0;
+    this.steps = 1;
+  }
+
+  // the seconds between ticks to hand bigBang
+  double tickRate() {
+    return 1.0 / this.fps;
+  }
+
+  // EFFECT: note how long the last tick took
+  void ticked(long nanos) {
+    this.tickNanos = nanos;
+  }
+
+  // EFFECT: note how long the last frame took to draw, and pick the steps for the next
+  // tick from the whole frame's time and the given number of events left to play. with
+  // nothing left the steps are left alone
+  void rendered(long nanos, int left) {
+    long frame = this.tickNanos + nanos;
+    this.frames[(int) (this.count % FrameClock.SAMPLES)] = frame;
+    this.count += 1;
+    this.tickNanos = 0;
+    if (left <= 0) {
+      return;
+    }
+    if (frame > this.budget) {
+      this.steps = Math.max(1, this.steps - Math.max(1, this.steps / 4));
+    }
+    else if (frame < this.budget * 3 / 4) {
+      this.steps = Math.min(FrameClock.MAX_STEPS, this.steps + Math.max(1, this.steps / 4));
+    }
+    this.steps = Math.max(1, Math.min(this.steps, left));
+  }
+
+  // the frame time that the given fraction of the recent frames came in at or under
+  long percentile(double fraction) {
+    int n = (int) Math.min(this.count, FrameClock.SAMPLES);
+    if (n == 0) {
+      return 0;
+    }
+    long[] sorted = Arrays.copyOf(this.frames, n);
+    Arrays.sort(sorted);
+    int rank = (int) Math.ceil(fraction * n) - 1;
+    return sorted[Math.max(0, Math.min(n - 1, rank))];
+  }
+
+  // a line on how the recent frames have gone
+  String report() {
+    return String.format("%d frames, p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, %d steps a tick",
+        this.count, this.percentile(0.50) / 1e6, this.percentile(0.95) / 1e6,
+        this.percentile(0.99) / 1e6, this.steps);
+  }
+}
+
+// a window sized raster that a whole frame is painted into as packed ARGB ints. javalib
+// only takes pixels through ComputedPixelImage's public setters, so the frame is painted
+// into a plain array and handed over a row of one color at a time, and only where it
+// differs from what the image already shows. a maze frame is long runs of a few colors and
+// mostly the same as the last one, so this is a handful of calls rather than one a pixel
+class MazeRaster {
+  final int width;
+  final int height;
+  final ComputedPixelImage image;
+  final int[] pixels;
+  // what the image holds, as of the last call to image
+  final int[] shown;
+
+  MazeRaster(int width, int height) {
+    this.width = width;
+    this.height = height;
+    this.image = new ComputedPixelImage(width, height);
+    this.pixels = new int[width * height];
+    this.shown = new int[width * height];
+  }
+
+  // EFFECT: paint the given rectangle the given color, clipped to the raster
+  void fill(int x, int y, int w, int h, int argb) {
+    int left = Math.max(0, x);
+    int right = Math.min(this.width, x + w);
+    int bottom = Math.min(this.height, y + h);
+    for (int row = Math.max(0, y); row < bottom && left < right; row++) {
+      Arrays.fill(this.pixels, row * this.width + left, row * this.width + right, argb);
+    }
+  }
+
+  // the color of the pixel at the given coordinates
+  int get(int x, int y) {
+    return this.pixels[y * this.width + x];
+  }
+
+  // the image to place in a scene, brought up to date with the pixels. each changed run of
+  // one color in a row is written with a single setPixels
+  WorldImage image() {
+    int lastArgb = 0;
+    Color lastColor = null;
+    for (int y = 0; y < this.height; y++) {
+      int row = y * this.width;
+      int x = 0;
+      while (x < this.width) {
+        int argb = this.pixels[row + x];
+        if (argb == this.shown[row + x]) {
+          x += 1;
+          continue;
+        }
+        int end = x + 1;
+        while (end < this.width && this.pixels[row + end] == argb) {
+          end += 1;
+        }
+        if (lastColor == null || argb != lastArgb) {
+          lastArgb = argb;
+          lastColor = new Color(argb, true);
+        }
+        this.image.setPixels(x, y, end - x, 1, lastColor);
+        System.arraycopy(this.pixels, row + x, this.shown, row + x, end - x);
+        x = end;
+      }
+    }
+    return this.image;
+  }
+}
+
 // a Union/Find data structure based on a HashMap of both nodes and representatives of type Cell
 class UnionFind {
   HashMap<Cell, Cell> representatives;
@@ -645,6 +1860,3006 @@ class UnionFind {
   }
 }
 
+// an immutable, compact snapshot of a rectangular maze. every cell owns one bit saying
+// whether it has a passage to its right neighbor and one saying whether it has a passage
+// to its bottom neighbor. each row starts on a fresh long so rows can be scanned a word
+// at a time, and the arrays are never written after construction.
+// because nothing in a snapshot changes, any number of threads can solve the same one at
+// once: every search keeps its state in locals and results are memoized in a concurrent map
+class MazeGrid {
+  // edge weights are drawn below this before any bias is added
+  static final int MAX_WEIGHT = 256;
+  // the bias that makes roughly two thirds of the passages horizontal
+  static final int HORIZONTAL_BIAS = 128;
+  // how many solves each grid remembers. a long lived grid that is asked about many pairs of
+  // endpoints keeps only the most recently used ones
+  static final int MAX_SOLUTIONS = 8;
+
+  final int width;
+  final int height;
+  final int rowWords;
+  // one bit a cell for a passage to the right and down, rowWords longs a row. a grid is
+  // shared between threads and caches, so outside this class they are only read, a word
+  // at a time or as copies
+  private final long[] right;
+  private final long[] down;
+  // the cost of moving right and down from every cell, or null when every step costs one
+  final int[] rightWeight;
+  final int[] downWeight;
+  // the cells that take part in the maze, or null for the whole rectangle. cells outside it
+  // never have passages, so the solvers need no checks of their own
+  final CellMask mask;
+  // the most recent solves, least recently used first. guarded by the map itself
+  final LinkedHashMap<String, Solution> solutions;
+
+  MazeGrid(int width, int height, long[] right, long[] down) {
+    this(width, height, right, down, null, null, null);
+  }
+
+  MazeGrid(int width, int height, long[] right, long[] down,
+           int[] rightWeight, int[] downWeight) {
+    this(width, height, right, down, rightWeight, downWeight, null);
+  }
+
+  MazeGrid(int width, int height, long[] right, long[] down,
+           int[] rightWeight, int[] downWeight, CellMask mask) {
+    this.width = width;
+    this.height = height;
+    this.rowWords = MazeGrid.rowWords(width);
+    this.right = right;
+    this.down = down;
+    this.rightWeight = rightWeight;
+    this.downWeight = downWeight;
+    this.mask = mask;
+    this.solutions = new LinkedHashMap<String, Solution>(16, 0.75f, true);
+  }
+
+  // generate the grid for the given key with the given scratch buffers
+  static MazeGrid generate(MazeKey key, GeneratorScratch scratch) {
+    Random rand = key.random();
+    if (key.algorithm.equals(MazeKey.KRUSKAL)) {
+      return MazeGrid.generate(key.width, key.height, rand, scratch);
+    }
+    else if (key.algorithm.equals(MazeKey.WEIGHTED_KRUSKAL)) {
+      return MazeGrid.generateWeighted(key.width, key.height, rand, 0, scratch);
+    }
+    else if (key.algorithm.equals(MazeKey.HORIZONTAL_KRUSKAL)) {
+      return MazeGrid.generateWeighted(key.width, key.height, rand,
+          MazeGrid.HORIZONTAL_BIAS, scratch);
+    }
+    else {
+      throw new IllegalArgumentException("Unknown maze algorithm: " + key.algorithm);
+    }
+  }
+
+  // a random edge weight: below MAX_WEIGHT, plus the bias on vertical edges when it is
+  // positive or on horizontal edges when it is negative, so it is never negative
+  static int weight(Random rand, boolean horizontal, int bias) {
+    int w = rand.nextInt(MazeGrid.MAX_WEIGHT);
+    if (horizontal) {
+      return bias < 0 ? w - bias : w;
+    }
+    else {
+      return bias > 0 ? w + bias : w;
+    }
+  }
+
+  // generate the snapshot of the maze with the given dimensions from the given random source
+  static MazeGrid generate(int width, int height, Random rand) {
+    return MazeGrid.generate(width, height, rand, new GeneratorScratch());
+  }
+
+  // generate the snapshot of the maze with the given dimensions from the given random
+  // source, using only the given scratch buffers for the work. this runs the same Kruskal's
+  // algorithm as Maze.createMaze on primitive arrays: edges are numbered cell * 2 for the
+  // passage to the right and cell * 2 + 1 for the passage down, listed in the order
+  // connectCellsX and connectCellsY add them and shuffled with the same swaps as
+  // Collections.shuffle, so the result is bit for bit the maze new Maze(...) would build
+  static MazeGrid generate(int width, int height, Random rand, GeneratorScratch scratch) {
+    int n = width * height;
+    scratch.ensure(n);
+    int[] edges = scratch.edges;
+    int count = MazeGrid.listEdges(width, height, edges);
+
+    GeneratorScratch.shuffle(edges, count, rand);
+    return MazeGrid.kruskal(width, height, edges, count, scratch.parent, null, null);
+  }
+
+  // generate the snapshot of a maze over only the active cells of the given mask, the way
+  // new Maze(mask, rand) builds one. every connected region of the mask gets its own tree
+  static MazeGrid generate(CellMask mask, Random rand, GeneratorScratch scratch) {
+    int width = mask.width;
+    int height = mask.height;
+    scratch.ensure(width * height);
+    int[] edges = scratch.edges;
+    int count = MazeGrid.listEdges(width, height, mask, edges);
+
+    GeneratorScratch.shuffle(edges, count, rand);
+    MazeGrid full = MazeGrid.kruskal(width, height, edges, count, scratch.parent, null, null);
+    return new MazeGrid(width, height, full.right, full.down, null, null, mask);
+  }
+
+  // generate the same maze as generate, over the given mask or the whole rectangle when it
+  // is null, but into the bitmaps of the scratch buffers rather than new ones. the grid is
+  // only good until the same buffers generate another, so this is for a maze replacing its
+  // own walls and never for a grid that is handed on to a cache or another thread
+  static MazeGrid generateInto(int width, int height, CellMask mask, Random rand,
+                               GeneratorScratch scratch) {
+    scratch.ensure(width * height);
+    int[] edges = scratch.edges;
+    int count = mask == null
+        ? MazeGrid.listEdges(width, height, edges)
+        : MazeGrid.listEdges(width, height, mask, edges);
+    long[] right = scratch.clearedBits(0, MazeGrid.rowWords(width) * height);
+    long[] down = scratch.clearedBits(1, MazeGrid.rowWords(width) * height);
+
+    GeneratorScratch.shuffle(edges, count, rand);
+    MazeGrid.openTree(width, height, edges, count, scratch.parent, right, down);
+    return new MazeGrid(width, height, right, down, null, null, mask);
+  }
+
+  // generate the snapshot of a weighted maze the way Maze.createWeightedMaze builds one:
+  // the same weights drawn in the same order and the same stable sort, so the two agree
+  static MazeGrid generateWeighted(int width, int height, Random rand, int bias,
+                                   GeneratorScratch scratch) {
+    int n = width * height;
+    scratch.ensure(n);
+    int[] edges = scratch.edges;
+    int[] keys = scratch.keys;
+    int count = MazeGrid.listEdges(width, height, edges);
+    int[] rightWeight = new int[n];
+    int[] downWeight = new int[n];
+
+    for (int i = 0; i < count; i++) {
+      int e = edges[i];
+      boolean isDown = (e & 1) != 0;
+      int w = MazeGrid.weight(rand, !isDown, bias);
+      keys[e] = w;
+      if (isDown) {
+        downWeight[e >>> 1] = w;
+      }
+      else {
+        rightWeight[e >>> 1] = w;
+      }
+    }
+    scratch.sortByKey(edges, count);
+    return MazeGrid.kruskal(width, height, edges, count, scratch.parent,
+        rightWeight, downWeight);
+  }
+
+  // EFFECT: fill the given array with every edge of a full grid, numbered cell * 2 for the
+  // passage right and cell * 2 + 1 for the passage down, in the order connectCellsX and
+  // connectCellsY create them. returns how many there are
+  static int listEdges(int width, int height, int[] edges) {
+    int count = 0;
+    for (int row = 0; row < width * height; row += width) {
+      for (int i = row; i < row + width - 1; i++) {
+        edges[count++] = i << 1;
+      }
+    }
+    for (int code = 1; code < (width * (height - 1)) << 1; code += 2) {
+      edges[count++] = code;
+    }
+    return count;
+  }
+
+  // EFFECT: fill the given array, when it is not null, with the edges between two active
+  // cells of the mask in the same order and numbering as the full grid. returns how many
+  // there are. the edges are found a word at a time: a cell has an edge right when it and
+  // the next bit are both set, and an edge down when it and the same bit a row below are
+  static int listEdges(int width, int height, CellMask mask, int[] edges) {
+    int words = mask.rowWords;
+    long[] bits = mask.bits;
+    int count = 0;
+    for (int y = 0; y < height; y++) {
+      for (int k = 0; k < words; k++) {
+        long here = bits[y * words + k];
+        long next = k + 1 < words ? bits[y * words + k + 1] : 0L;
+        count = MazeGrid.emit(here & ((here >>> 1) | (next << 63)), y * width + k * 64, 0,
+            edges, count);
+      }
+    }
+    for (int y = 0; y + 1 < height; y++) {
+      for (int k = 0; k < words; k++) {
+        long pairs = bits[y * words + k] & bits[(y + 1) * words + k];
+        count = MazeGrid.emit(pairs, y * width + k * 64, 1, edges, count);
+      }
+    }
+    return count;
+  }
+
+  // EFFECT: append an edge in the given direction for every set bit of the given word,
+  // whose lowest bit is the given cell. returns the new count
+  static int emit(long word, int base, int direction, int[] edges, int count) {
+    if (edges == null) {
+      return count + Long.bitCount(word);
+    }
+    while (word != 0) {
+      edges[count++] = ((base + Long.numberOfTrailingZeros(word)) << 1) | direction;
+      word &= word - 1;
+    }
+    return count;
+  }
+
+  // keep every edge, in the given order, that joins two separate trees
+  static MazeGrid kruskal(int width, int height, int[] edges, int count, int[] parent,
+                          int[] rightWeight, int[] downWeight) {
+    int words = MazeGrid.rowWords(width);
+    long[] right = new long[words * height];
+    long[] down = new long[words * height];
+    MazeGrid.openTree(width, height, edges, count, parent, right, down);
+    return new MazeGrid(width, height, right, down, rightWeight, downWeight);
+  }
+
+  // EFFECT: open the passages Kruskal's algorithm keeps from the first count edges, in
+  // order, in the given bitmaps, which start with every passage closed
+  static void openTree(int width, int height, int[] edges, int count, int[] parent,
+                       long[] right, long[] down) {
+    int n = width * height;
+    int words = MazeGrid.rowWords(width);
+    for (int i = 0; i < n; i++) {
+      parent[i] = i;
+    }
+    int inTree = 0;
+    for (int e = 0; e < count && inTree < n - 1; e++) {
+      int c1 = edges[e] >>> 1;
+      boolean isDown = (edges[e] & 1) != 0;
+      int c2 = isDown ? c1 + width : c1 + 1;
+      int r1 = GeneratorScratch.find(parent, c1);
+      int r2 = GeneratorScratch.find(parent, c2);
+      if (r1 != r2) {
+        parent[r1] = r2;
+        inTree += 1;
+        MazeGrid.set(isDown ? down : right, c1, width, words);
+      }
+    }
+  }
+
+  // the number of longs needed to hold one row of the given width
+  static int rowWords(int width) {
+    return (width + 63) >>> 6;
+  }
+
+  // the index of the long holding the bit of cell i in a grid of the given width
+  static int word(int i, int width, int rowWords) {
+    return (i / width) * rowWords + ((i % width) >>> 6);
+  }
+
+  // EFFECT: set the bit of cell i in the given row-aligned bitmap
+  static void set(long[] bits, int i, int width, int rowWords) {
+    bits[MazeGrid.word(i, width, rowWords)] |= 1L << (i % width);
+  }
+
+  // take a snapshot of the passages currently open in the given maze
+  static MazeGrid of(Maze m) {
+    int words = MazeGrid.rowWords(m.width);
+    long[] right = new long[words * m.height];
+    long[] down = new long[words * m.height];
+    // the weights are only kept once one of them is not zero, so an unweighted maze
+    // allocates nothing but its bitmaps
+    int[] rightWeight = null;
+    int[] downWeight = null;
+    for (int i = 0; i < m.cells.size(); i++) {
+      Cell c = m.cells.get(i);
+      if (c.right != null) {
+        MazeGrid.set(right, i, m.width, words);
+      }
+      if (c.bottom != null) {
+        MazeGrid.set(down, i, m.width, words);
+      }
+      int r = c.right == null ? 0 : c.right.weight;
+      int d = c.bottom == null ? 0 : c.bottom.weight;
+      if (rightWeight == null && (r != 0 || d != 0)) {
+        rightWeight = new int[m.cells.size()];
+        downWeight = new int[m.cells.size()];
+      }
+      if (rightWeight != null) {
+        rightWeight[i] = r;
+        downWeight[i] = d;
+      }
+    }
+    return new MazeGrid(m.width, m.height, right, down, rightWeight, downWeight, m.mask);
+  }
+
+  // the number of cells in this grid
+  int size() {
+    return this.width * this.height;
+  }
+
+  // a 64 bit FNV-1a hash of the size, the passages and the weights, for checking that two
+  // generators built the same maze without comparing the grids themselves
+  long fingerprint() {
+    long h = 0xCBF29CE484222325L;
+    h = MazeGrid.fnv(h, this.width);
+    h = MazeGrid.fnv(h, this.height);
+    for (int k = 0; k < this.right.length; k++) {
+      h = MazeGrid.fnv(h, this.right[k]);
+      h = MazeGrid.fnv(h, this.down[k]);
+    }
+    for (int i = 0; this.rightWeight != null && i < this.size(); i++) {
+      h = MazeGrid.fnv(h, this.rightWeight[i]);
+      h = MazeGrid.fnv(h, this.downWeight[i]);
+    }
+    return h;
+  }
+
+  // fold the eight bytes of the given value into an FNV-1a hash, lowest byte first
+  static long fnv(long h, long value) {
+    for (int b = 0; b < 64; b += 8) {
+      h = (h ^ (value >>> b & 0xFF)) * 0x100000001B3L;
+    }
+    return h;
+  }
+
+  // EFFECT: open the given passages out of cell i, as four bits like passages, and forget
+  // the solves made without them. only a lazy maze does this, to its own snapshot, as it
+  // reveals cells nothing has been able to reach yet
+  void openAll(int i, int open) {
+    if ((open & 1) != 0) {
+      MazeGrid.set(this.right, i, this.width, this.rowWords);
+    }
+    if ((open & 2) != 0) {
+      MazeGrid.set(this.down, i, this.width, this.rowWords);
+    }
+    if ((open & 4) != 0) {
+      MazeGrid.set(this.right, i - 1, this.width, this.rowWords);
+    }
+    if ((open & 8) != 0) {
+      MazeGrid.set(this.down, i - this.width, this.width, this.rowWords);
+    }
+    synchronized (this.solutions) {
+      this.solutions.clear();
+    }
+  }
+
+  // the kth word of passages to the right, rowWords a row
+  long rightWord(int k) {
+    return this.right[k];
+  }
+
+  // the kth word of passages down, rowWords a row
+  long downWord(int k) {
+    return this.down[k];
+  }
+
+  // the number of words of passages each way
+  int words() {
+    return this.right.length;
+  }
+
+  // a copy of the passages to the right
+  long[] rightBits() {
+    return this.right.clone();
+  }
+
+  // a copy of the passages down
+  long[] downBits() {
+    return this.down.clone();
+  }
+
+  // is there a passage from cell i to the cell on its right?
+  boolean openRight(int i) {
+    return (this.right[MazeGrid.word(i, this.width, this.rowWords)] >>> (i % this.width) & 1L)
+        != 0;
+  }
+
+  // is there a passage from cell i to the cell below it?
+  boolean openDown(int i) {
+    return (this.down[MazeGrid.word(i, this.width, this.rowWords)] >>> (i % this.width) & 1L)
+        != 0;
+  }
+
+  // is there a passage from cell i to the cell on its left?
+  boolean openLeft(int i) {
+    return i % this.width != 0 && this.openRight(i - 1);
+  }
+
+  // is there a passage from cell i to the cell above it?
+  boolean openUp(int i) {
+    return i >= this.width && this.openDown(i - this.width);
+  }
+
+  // solve this grid from start to target with the named algorithm, reusing any of the last
+  // MAX_SOLUTIONS solves. safe to call from any number of threads. the search runs outside
+  // the lock so one slow solve does not hold up lookups of others
+  Solution solve(String algorithm, int start, int target) {
+    String key = algorithm + " " + start + " " + target;
+    synchronized (this.solutions) {
+      Solution known = this.solutions.get(key);
+      if (known != null) {
+        return known;
+      }
+    }
+
+    Solution made = this.search(algorithm, start, target);
+
+    synchronized (this.solutions) {
+      Solution raced = this.solutions.get(key);
+      if (raced != null) {
+        return raced;
+      }
+      this.solutions.put(key, made);
+      Iterator<String> it = this.solutions.keySet().iterator();
+      while (this.solutions.size() > MazeGrid.MAX_SOLUTIONS) {
+        it.next();
+        it.remove();
+      }
+    }
+    return made;
+  }
+
+  // solve this grid from start to target with the named algorithm. neighbors are added
+  // right, bottom, left, top like in Maze.search. DFS marks a cell as seen when it is taken
+  // off the worklist, and BFS when it is first put on, so each cell keeps the neighbor that
+  // found it first and the path is a shortest one even once a braided grid has loops. on a
+  // perfect maze every cell is only ever found once, so the two give the same visits
+  Solution search(String algorithm, int start, int target) {
+    boolean dfs;
+    if (algorithm.equals(Solution.DFS)) {
+      dfs = true;
+    }
+    else if (algorithm.equals(Solution.BFS)) {
+      dfs = false;
+    }
+    else if (algorithm.equals(Solution.DIJKSTRA)) {
+      return this.dijkstra(start, target);
+    }
+    else {
+      throw new IllegalArgumentException("Unknown solver: " + algorithm);
+    }
+
+    int n = this.size();
+    int[] cameFrom = new int[n];
+    Arrays.fill(cameFrom, -1);
+    // the seen bits, the visit order and the worklist only live for this call, so they come
+    // from this thread's reusable buffers
+    SearchScratch scratch = SearchScratch.LOCAL.get();
+    scratch.ensure(n);
+    long[] seen = scratch.seen;
+    int[] order = scratch.order;
+    int visited = 0;
+    // a queue between head and tail for BFS, a stack ending at tail for DFS. every cell is
+    // expanded once and adds at most four neighbors
+    int[] worklist = scratch.worklist;
+    int head = 0;
+    int tail = 0;
+
+    worklist[tail++] = start;
+    if (!dfs) {
+      SearchScratch.set(seen, start);
+    }
+    while (head < tail) {
+      int next = dfs ? worklist[--tail] : worklist[head++];
+      if (dfs) {
+        if (SearchScratch.get(seen, next)) {
+          continue;
+        }
+        SearchScratch.set(seen, next);
+      }
+      order[visited++] = next;
+      if (next == target) {
+        return new Solution(Arrays.copyOf(order, visited),
+            Solution.pathTo(cameFrom, start, target), cameFrom);
+      }
+      int open = this.passages(next);
+      for (int d = 0; d < 4; d++) {
+        if ((open >>> d & 1) != 0) {
+          int to = this.neighbor(next, d);
+          if (!SearchScratch.get(seen, to)) {
+            worklist[tail++] = to;
+            cameFrom[to] = next;
+            if (!dfs) {
+              SearchScratch.set(seen, to);
+            }
+          }
+        }
+      }
+    }
+    return new Solution(Arrays.copyOf(order, visited), new int[0], cameFrom);
+  }
+
+  // the number of passages out of cell i
+  int degree(int i) {
+    return Integer.bitCount(this.passages(i));
+  }
+
+  // the passages out of cell i as four bits: 1 right, 2 down, 4 left and 8 up. this reads
+  // all four with a single division, so it is the fast way to look at a whole cell
+  int passages(int i) {
+    int y = i / this.width;
+    int x = i - y * this.width;
+    int at = y * this.rowWords + (x >>> 6);
+    int bits = (int) (this.right[at] >>> x & 1L) | (int) (this.down[at] >>> x & 1L) << 1;
+    if (x > 0) {
+      bits |= (int) (this.right[y * this.rowWords + ((x - 1) >>> 6)] >>> (x - 1) & 1L) << 2;
+    }
+    if (y > 0) {
+      bits |= (int) (this.down[at - this.rowWords] >>> x & 1L) << 3;
+    }
+    return bits;
+  }
+
+  // the neighbor of cell i in the given direction (0 right, 1 down, 2 left, 3 up) if there
+  // is a passage to it, otherwise -1
+  int step(int i, int direction) {
+    return (this.passages(i) >>> direction & 1) == 0 ? -1 : this.neighbor(i, direction);
+  }
+
+  // the cell next to cell i in the given direction, whether or not there is a passage
+  int neighbor(int i, int direction) {
+    if (direction == 0) {
+      return i + 1;
+    }
+    else if (direction == 1) {
+      return i + this.width;
+    }
+    else if (direction == 2) {
+      return i - 1;
+    }
+    else {
+      return i - this.width;
+    }
+  }
+
+  // EFFECT: fill dist with the number of steps from the given cell to every cell, or -1
+  // where it cannot be reached, using queue as the worklist. both arrays need a slot per
+  // cell. returns the last cell reached, which is as far from the given one as any
+  int distances(int from, int[] dist, int[] queue) {
+    int n = this.size();
+    Arrays.fill(dist, 0, n, -1);
+    int head = 0;
+    int tail = 0;
+    dist[from] = 0;
+    queue[tail++] = from;
+    int last = from;
+    while (head < tail) {
+      int next = queue[head++];
+      last = next;
+      int open = this.passages(next);
+      for (int d = 0; d < 4; d++) {
+        if ((open >>> d & 1) != 0) {
+          int to = this.neighbor(next, d);
+          if (dist[to] < 0) {
+            dist[to] = dist[next] + 1;
+            queue[tail++] = to;
+          }
+        }
+      }
+    }
+    return last;
+  }
+
+  // the cell one step nearer the given cell from every cell, by a breadth first pass, so
+  // following it leads back by a shortest path. the given cell is its own parent, and
+  // cells that cannot reach it have -1
+  int[] parents(int from) {
+    int n = this.size();
+    int[] parent = new int[n];
+    Arrays.fill(parent, -1);
+    SearchScratch scratch = SearchScratch.LOCAL.get();
+    scratch.ensure(n);
+    int[] queue = scratch.order;
+    int head = 0;
+    int tail = 0;
+    parent[from] = from;
+    queue[tail++] = from;
+    while (head < tail) {
+      int next = queue[head++];
+      int open = this.passages(next);
+      for (int d = 0; d < 4; d++) {
+        if ((open >>> d & 1) != 0) {
+          int to = this.neighbor(next, d);
+          if (parent[to] < 0) {
+            parent[to] = next;
+            queue[tail++] = to;
+          }
+        }
+      }
+    }
+    return parent;
+  }
+
+  // EFFECT: fill dist with the distances from the given cell using this thread's scratch
+  // queue. returns the last cell reached
+  int distances(int from, int[] dist) {
+    SearchScratch scratch = SearchScratch.LOCAL.get();
+    scratch.ensure(this.size());
+    return this.distances(from, dist, scratch.order);
+  }
+
+  // EFFECT: fill fromA and fromB with the distances from cells a and b, or -1 where a cell
+  // cannot be reached, in a single breadth first pass. the two waves share one queue whose
+  // entries are tagged with the wave they belong to
+  void distances(int a, int b, int[] fromA, int[] fromB) {
+    int n = this.size();
+    SearchScratch scratch = SearchScratch.LOCAL.get();
+    scratch.ensure(n);
+    int[] queue = scratch.worklist;
+    Arrays.fill(fromA, 0, n, -1);
+    Arrays.fill(fromB, 0, n, -1);
+    int head = 0;
+    int tail = 0;
+    fromA[a] = 0;
+    fromB[b] = 0;
+    queue[tail++] = a << 1;
+    queue[tail++] = b << 1 | 1;
+    while (head < tail) {
+      int entry = queue[head++];
+      int next = entry >>> 1;
+      int[] dist = (entry & 1) == 0 ? fromA : fromB;
+      int open = this.passages(next);
+      for (int d = 0; d < 4; d++) {
+        if ((open >>> d & 1) != 0) {
+          int to = this.neighbor(next, d);
+          if (dist[to] < 0) {
+            dist[to] = dist[next] + 1;
+            queue[tail++] = to << 1 | (entry & 1);
+          }
+        }
+      }
+    }
+  }
+
+  // the two cells farthest apart, found with two distance passes: the cell farthest from
+  // any cell is one end of a longest path, and the cell farthest from that is the other.
+  // this is exact for a perfect maze, and a good long pair once loops are added
+  int[] farthestPair() {
+    SearchScratch scratch = SearchScratch.LOCAL.get();
+    scratch.ensure(this.size());
+    int first = this.distances(this.mask == null ? 0 : this.mask.first(),
+        scratch.dist, scratch.order);
+    return new int[] {first, this.distances(first, scratch.dist, scratch.order)};
+  }
+
+  // a copy of this grid with the given fraction of its dead ends opened up into loops. the
+  // dead ends are taken in random order, and each one knocks down a wall to a neighbor that
+  // is also a dead end when it has one, so a single knock often removes two. a dead end
+  // that an earlier knock already opened is skipped
+  MazeGrid braid(double fraction, Random rand) {
+    int n = this.size();
+    MazeGrid braided = new MazeGrid(this.width, this.height, this.right.clone(),
+        this.down.clone(), this.rightWeight == null ? null : this.rightWeight.clone(),
+        this.downWeight == null ? null : this.downWeight.clone(), this.mask);
+    int[] deadEnds = new int[n];
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      if (this.degree(i) == 1) {
+        deadEnds[count++] = i;
+      }
+    }
+    GeneratorScratch.shuffle(deadEnds, count, rand);
+
+    int[] choices = new int[4];
+    int todo = (int) Math.round(fraction * count);
+    for (int k = 0; k < todo; k++) {
+      int cell = deadEnds[k];
+      int open = braided.passages(cell);
+      if (Integer.bitCount(open) != 1) {
+        continue;
+      }
+      // look for walls to neighboring dead ends first, and any wall at all after that
+      int walls = 0;
+      for (int pass = 0; pass < 2 && walls == 0; pass++) {
+        for (int d = 0; d < 4; d++) {
+          int to = braided.neighbor(cell, d);
+          if ((open >>> d & 1) == 0 && braided.inside(cell, d)
+              && (this.mask == null || this.mask.active(to))
+              && (pass == 1 || braided.degree(to) == 1)) {
+            choices[walls++] = d;
+          }
+        }
+      }
+      if (walls > 0) {
+        braided.knockDown(cell, choices[rand.nextInt(walls)]);
+      }
+    }
+    return braided;
+  }
+
+  // is the cell next to cell i in the given direction inside the grid?
+  boolean inside(int i, int direction) {
+    int x = i % this.width;
+    if (direction == 0) {
+      return x < this.width - 1;
+    }
+    else if (direction == 1) {
+      return i + this.width < this.size();
+    }
+    else if (direction == 2) {
+      return x > 0;
+    }
+    else {
+      return i >= this.width;
+    }
+  }
+
+  // EFFECT: open the wall on the given side of cell i. only for grids still being built,
+  // since solutions already worked out for this grid would go stale
+  void knockDown(int i, int direction) {
+    int from = direction < 2 ? i : this.neighbor(i, direction);
+    long[] bits = direction % 2 == 0 ? this.right : this.down;
+    int[] weights = direction % 2 == 0 ? this.rightWeight : this.downWeight;
+    MazeGrid.set(bits, from, this.width, this.rowWords);
+    if (weights != null && weights[from] == 0) {
+      weights[from] = 1;
+    }
+  }
+
+  // the cost of the passage from cell i in the given direction, one when unweighted
+  int cost(int i, boolean isDown) {
+    if (isDown) {
+      return this.downWeight == null ? 1 : this.downWeight[i];
+    }
+    return this.rightWeight == null ? 1 : this.rightWeight[i];
+  }
+
+  // solve this grid from start to target for the cheapest path using the passage weights.
+  // the heap holds cost << 32 | cell in a primitive array, and stale entries are skipped
+  // when they come off instead of being removed
+  Solution dijkstra(int start, int target) {
+    int n = this.size();
+    int[] cameFrom = new int[n];
+    Arrays.fill(cameFrom, -1);
+    SearchScratch scratch = SearchScratch.LOCAL.get();
+    scratch.ensure(n);
+    long[] settled = scratch.seen;
+    int[] order = scratch.order;
+    int[] dist = scratch.dist;
+    long[] heap = scratch.heap;
+    Arrays.fill(dist, 0, n, Integer.MAX_VALUE);
+    int visited = 0;
+    int size = 0;
+
+    dist[start] = 0;
+    heap[size++] = start;
+    while (size > 0) {
+      long top = heap[0];
+      size = SearchScratch.pop(heap, size);
+      int next = (int) top;
+      if (SearchScratch.get(settled, next)) {
+        continue;
+      }
+      SearchScratch.set(settled, next);
+      order[visited++] = next;
+      if (next == target) {
+        return new Solution(Arrays.copyOf(order, visited),
+            Solution.pathTo(cameFrom, start, target), cameFrom);
+      }
+      int d = dist[next];
+      if (this.openRight(next)) {
+        size = this.relax(next, next + 1, d + this.cost(next, false), dist, cameFrom, heap, size);
+      }
+      if (this.openDown(next)) {
+        size = this.relax(next, next + this.width, d + this.cost(next, true),
+            dist, cameFrom, heap, size);
+      }
+      if (this.openLeft(next)) {
+        size = this.relax(next, next - 1, d + this.cost(next - 1, false),
+            dist, cameFrom, heap, size);
+      }
+      if (this.openUp(next)) {
+        size = this.relax(next, next - this.width, d + this.cost(next - this.width, true),
+            dist, cameFrom, heap, size);
+      }
+    }
+    return new Solution(Arrays.copyOf(order, visited), new int[0], cameFrom);
+  }
+
+  // EFFECT: record the given route to cell to if it is cheaper than the best one so far,
+  // pushing it onto the heap. returns the new heap size
+  int relax(int from, int to, int d, int[] dist, int[] cameFrom, long[] heap, int size) {
+    if (d < dist[to]) {
+      dist[to] = d;
+      cameFrom[to] = from;
+      return SearchScratch.push(heap, size, ((long) d << 32) | to);
+    }
+    return size;
+  }
+}
+
+// the result of solving a maze between two cells, stored as cell indices: the order in
+// which cells were visited, the correct path from the target back to the start (empty
+// if the target was never reached), and the cell each reached cell was added from. one
+// solution is shared by everyone who asks a grid for the same solve, so the arrays are
+// only read through the methods below, and the ones that hand out whole arrays copy them
+class Solution {
+  static final String DFS = "dfs";
+  static final String BFS = "bfs";
+  static final String DIJKSTRA = "dijkstra";
+
+  private final int[] visited;
+  private final int[] path;
+  private final int[] cameFrom;
+
+  Solution(int[] visited, int[] path, int[] cameFrom) {
+    this.visited = visited;
+    this.path = path;
+    this.cameFrom = cameFrom;
+  }
+
+  // was the target reached?
+  boolean found() {
+    return this.path.length > 0;
+  }
+
+  // the number of cells visited
+  int visitedCount() {
+    return this.visited.length;
+  }
+
+  // the kth cell visited
+  int visitedAt(int k) {
+    return this.visited[k];
+  }
+
+  // the number of cells on the path, 0 if the target was never reached
+  int pathLength() {
+    return this.path.length;
+  }
+
+  // the kth cell of the path, counting from the target
+  int pathAt(int k) {
+    return this.path[k];
+  }
+
+  // does this solution know the cell every reached cell was added from?
+  boolean hasParents() {
+    return this.cameFrom != null;
+  }
+
+  // the cell that cell i was added from, or -1 if it was not reached
+  int parent(int i) {
+    return this.cameFrom[i];
+  }
+
+  // a copy of the cells visited, in order
+  int[] visited() {
+    return this.visited.clone();
+  }
+
+  // a copy of the path from the target back to the start
+  int[] path() {
+    return this.path.clone();
+  }
+
+  // a copy of the cell each cell was added from, or null if this solution does not know
+  int[] cameFrom() {
+    return this.cameFrom == null ? null : this.cameFrom.clone();
+  }
+
+  // follow cameFrom from the target back to the start
+  static int[] pathTo(int[] cameFrom, int start, int target) {
+    int length = 1;
+    for (int at = target; at != start; at = cameFrom[at]) {
+      length += 1;
+    }
+    int[] path = new int[length];
+    int at = target;
+    for (int i = 0; i < length - 1; i++) {
+      path[i] = at;
+      at = cameFrom[at];
+    }
+    path[length - 1] = start;
+    return path;
+  }
+}
+
+// the events of one solve in the order they happened: every cell visited, then every cell
+// of the path from the target back to the start. each event is a cell index shifted up
+// past a bit saying which kind it is. on disk the events are delta and varint coded, so a
+// search that mostly steps between neighbors takes a byte or two an event. the log also
+// keeps the fingerprint of the walls it was recorded on
+class ReplayLog {
+  static final int MAGIC = 0x4D5A524C;
+  static final int VERSION = 1;
+  static final int VISIT = 0;
+  static final int PATH = 1;
+
+  final int width;
+  final int height;
+  final int start;
+  final int target;
+  final long fingerprint;
+  final int[] events;
+
+  ReplayLog(int width, int height, int start, int target, long fingerprint, int[] events) {
+    this.width = width;
+    this.height = height;
+    this.start = start;
+    this.target = target;
+    this.fingerprint = fingerprint;
+    this.events = events;
+  }
+
+  // the log of the given solve of the given grid
+  static ReplayLog of(MazeGrid grid, int start, int target, Solution solved) {
+    int[] events = new int[solved.visitedCount() + solved.pathLength()];
+    int count = 0;
+    for (int k = 0; k < solved.visitedCount(); k++) {
+      events[count++] = solved.visitedAt(k) << 1 | ReplayLog.VISIT;
+    }
+    for (int k = 0; k < solved.pathLength(); k++) {
+      events[count++] = solved.pathAt(k) << 1 | ReplayLog.PATH;
+    }
+    return new ReplayLog(grid.width, grid.height, start, target, grid.fingerprint(), events);
+  }
+
+  // the number of events
+  int size() {
+    return this.events.length;
+  }
+
+  // the cell of the given event
+  int cell(int e) {
+    return this.events[e] >>> 1;
+  }
+
+  // is the given event part of the path rather than a visit?
+  boolean onPath(int e) {
+    return (this.events[e] & 1) == ReplayLog.PATH;
+  }
+
+  // EFFECT: write this log to the given stream. each event is the zigzag coded difference
+  // from the cell before, shifted up past its kind, as a little endian base 128 varint
+  void save(OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(ReplayLog.MAGIC);
+    data.writeInt(ReplayLog.VERSION);
+    data.writeInt(this.width);
+    data.writeInt(this.height);
+    data.writeInt(this.start);
+    data.writeInt(this.target);
+    data.writeLong(this.fingerprint);
+    data.writeInt(this.events.length);
+    int prev = 0;
+    for (int event : this.events) {
+      long delta = (long) (event >>> 1) - prev;
+      long code = ((delta << 1) ^ (delta >> 63)) << 1 | (event & 1);
+      while ((code & ~0x7FL) != 0) {
+        data.writeByte((int) (code & 0x7F) | 0x80);
+        code >>>= 7;
+      }
+      data.writeByte((int) code);
+      prev = event >>> 1;
+    }
+    data.flush();
+  }
+
+  // the log written to the given stream by save
+  static ReplayLog load(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    if (data.readInt() != ReplayLog.MAGIC) {
+      throw new IOException("Not a maze replay");
+    }
+    int version = data.readInt();
+    if (version != ReplayLog.VERSION) {
+      throw new IOException("Unknown replay version: " + version);
+    }
+    int width = data.readInt();
+    int height = data.readInt();
+    int start = data.readInt();
+    int target = data.readInt();
+    long fingerprint = data.readLong();
+    int[] events = new int[data.readInt()];
+    int prev = 0;
+    for (int e = 0; e < events.length; e++) {
+      long code = 0;
+      int shift = 0;
+      int b;
+      do {
+        b = data.readUnsignedByte();
+        code |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      long zigzag = code >>> 1;
+      int cell = (int) (prev + ((zigzag >>> 1) ^ -(zigzag & 1)));
+      events[e] = cell << 1 | (int) (code & 1);
+      prev = cell;
+    }
+    return new ReplayLog(width, height, start, target, fingerprint, events);
+  }
+
+  // this log as the bytes save writes
+  byte[] toBytes() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      this.save(out);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Writing to memory failed", e);
+    }
+    return out.toByteArray();
+  }
+}
+
+// identifies one generated maze: generation is deterministic in all four fields
+class MazeKey {
+  static final String KRUSKAL = "kruskal";
+  static final String WEIGHTED_KRUSKAL = "weighted-kruskal";
+  static final String HORIZONTAL_KRUSKAL = "horizontal-kruskal";
+  // the random numbers behind a key: version 1 draws from java.util.Random, whose sequence
+  // for a seed is fixed by its documentation, and version 2 from MazeRandom, which is
+  // specified entirely in this file. either way the generators shuffle with
+  // GeneratorScratch.shuffle, so a key always names the same walls
+  static final int LEGACY = 1;
+  static final int SPLITMIX = 2;
+
+  final int width;
+  final int height;
+  final long seed;
+  final String algorithm;
+  final int version;
+
+  MazeKey(int width, int height, long seed, String algorithm) {
+    this(width, height, seed, algorithm, MazeKey.LEGACY);
+  }
+
+  MazeKey(int width, int height, long seed, String algorithm, int version) {
+    this.width = width;
+    this.height = height;
+    this.seed = seed;
+    this.algorithm = algorithm;
+    this.version = version;
+  }
+
+  // a fresh source of the random numbers this key's version calls for
+  Random random() {
+    if (this.version == MazeKey.LEGACY) {
+      return new Random(this.seed);
+    }
+    else if (this.version == MazeKey.SPLITMIX) {
+      return new MazeRandom(this.seed);
+    }
+    else {
+      throw new IllegalArgumentException("Unknown maze version: " + this.version);
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof MazeKey)) {
+      return false;
+    }
+    MazeKey that = (MazeKey) o;
+    return this.width == that.width
+        && this.height == that.height
+        && this.seed == that.seed
+        && this.algorithm.equals(that.algorithm)
+        && this.version == that.version;
+  }
+
+  @Override
+  public int hashCode() {
+    int h = 31 * this.width + this.height;
+    h = 31 * h + Long.hashCode(this.seed);
+    h = 31 * h + this.algorithm.hashCode();
+    return 31 * h + this.version;
+  }
+}
+
+// a thread safe, least recently used cache of generated mazes stored as compact grids.
+// entries are weighed by their cell count and the oldest ones are evicted once the total
+// goes over the limit. a hit rebuilds the maze from its grid and never runs connectCellsX,
+// connectCellsY or createMaze. the grids themselves are immutable, so callers on different
+// threads can share and solve the same one directly
+class MazeCache {
+  final long maxCells;
+  LinkedHashMap<MazeKey, MazeGrid> entries;
+  long weight;
+  long hits;
+  long misses;
+  long evictions;
+
+  MazeCache(long maxCells) {
+    this.maxCells = maxCells;
+    this.entries = new LinkedHashMap<MazeKey, MazeGrid>(16, 0.75f, true);
+    this.weight = 0;
+    this.hits = 0;
+    this.misses = 0;
+    this.evictions = 0;
+  }
+
+  // the maze with the given dimensions, seed and algorithm, generated at most once while cached
+  Maze get(int width, int height, long seed, String algorithm) {
+    return new Maze(this.grid(new MazeKey(width, height, seed, algorithm)));
+  }
+
+  // the compact grid for the given key, generating it on a miss. generation happens outside
+  // the lock so one slow miss does not hold up hits on other keys
+  MazeGrid grid(MazeKey key) {
+    synchronized (this) {
+      MazeGrid cached = this.entries.get(key);
+      if (cached != null) {
+        this.hits += 1;
+        return cached;
+      }
+      this.misses += 1;
+    }
+
+    MazeGrid made = MazeCache.generate(key);
+
+    synchronized (this) {
+      MazeGrid raced = this.entries.get(key);
+      if (raced != null) {
+        return raced;
+      }
+      if (made.size() <= this.maxCells) {
+        this.entries.put(key, made);
+        this.weight += made.size();
+        this.evict();
+      }
+    }
+    return made;
+  }
+
+  // generate the grid for the given key from scratch
+  static MazeGrid generate(MazeKey key) {
+    return MazeGrid.generate(key, new GeneratorScratch());
+  }
+
+  // EFFECT: drop least recently used entries until the total weight fits the limit
+  void evict() {
+    Iterator<Map.Entry<MazeKey, MazeGrid>> it = this.entries.entrySet().iterator();
+    while (this.weight > this.maxCells && it.hasNext()) {
+      this.weight -= it.next().getValue().size();
+      it.remove();
+      this.evictions += 1;
+    }
+  }
+
+  // the fraction of lookups that were served from the cache
+  synchronized double hitRate() {
+    long total = this.hits + this.misses;
+    return total == 0 ? 0.0 : (double) this.hits / total;
+  }
+}
+
+// how the cells of a maze fit together. cells are numbered densely from zero, and every
+// cell's neighbors are found by arithmetic on its index, one direction at a time
+interface Topology {
+  // the number of cells
+  int size();
+
+  // the number of directions a cell can have a neighbor in
+  int directions();
+
+  // the neighbor of cell i in direction d, or -1 if there is none
+  int neighbor(int i, int d);
+
+  // the direction that leads back from the neighbor in direction d
+  int opposite(int d);
+
+  // the name used when exporting a maze over this topology
+  String name();
+}
+
+// the square grid used by Maze: right, down, left and up, in the order search adds them
+class SquareTopology implements Topology {
+  final int width;
+  final int height;
+
+  SquareTopology(int width, int height) {
+    this.width = width;
+    this.height = height;
+  }
+
+  public int size() {
+    return this.width * this.height;
+  }
+
+  public int directions() {
+    return 4;
+  }
+
+  public int neighbor(int i, int d) {
+    int x = i % this.width;
+    if (d == 0) {
+      return x + 1 < this.width ? i + 1 : -1;
+    }
+    else if (d == 1) {
+      return i + this.width < this.size() ? i + this.width : -1;
+    }
+    else if (d == 2) {
+      return x > 0 ? i - 1 : -1;
+    }
+    else {
+      return i >= this.width ? i - this.width : -1;
+    }
+  }
+
+  public int opposite(int d) {
+    return (d + 2) % 4;
+  }
+
+  public String name() {
+    return "square " + this.width + " " + this.height;
+  }
+}
+
+// a grid of hexagons in rows, odd rows shifted half a cell right. the directions are east,
+// south east, south west, west, north west and north east
+class HexTopology implements Topology {
+  final int width;
+  final int height;
+
+  HexTopology(int width, int height) {
+    this.width = width;
+    this.height = height;
+  }
+
+  public int size() {
+    return this.width * this.height;
+  }
+
+  public int directions() {
+    return 6;
+  }
+
+  public int neighbor(int i, int d) {
+    int x = i % this.width;
+    int y = i / this.width;
+    int shift = y % 2;
+    int nx;
+    int ny;
+    if (d == 0) {
+      nx = x + 1;
+      ny = y;
+    }
+    else if (d == 3) {
+      nx = x - 1;
+      ny = y;
+    }
+    else {
+      // the diagonal neighbors sit above or below, a half cell either side
+      ny = d < 3 ? y + 1 : y - 1;
+      nx = (d == 1 || d == 5) ? x + shift : x + shift - 1;
+    }
+    if (nx < 0 || nx >= this.width || ny < 0 || ny >= this.height) {
+      return -1;
+    }
+    return ny * this.width + nx;
+  }
+
+  public int opposite(int d) {
+    return (d + 3) % 6;
+  }
+
+  public String name() {
+    return "hex " + this.width + " " + this.height;
+  }
+}
+
+// a grid of triangles in rows, alternately pointing up and down. the directions are left,
+// right, and the one across the flat side: down for a triangle pointing up, up otherwise
+class TriangleTopology implements Topology {
+  final int width;
+  final int height;
+
+  TriangleTopology(int width, int height) {
+    this.width = width;
+    this.height = height;
+  }
+
+  public int size() {
+    return this.width * this.height;
+  }
+
+  public int directions() {
+    return 3;
+  }
+
+  public int neighbor(int i, int d) {
+    int x = i % this.width;
+    int y = i / this.width;
+    if (d == 0) {
+      return x > 0 ? i - 1 : -1;
+    }
+    else if (d == 1) {
+      return x + 1 < this.width ? i + 1 : -1;
+    }
+    else if ((x + y) % 2 == 0) {
+      return y + 1 < this.height ? i + this.width : -1;
+    }
+    else {
+      return y > 0 ? i - this.width : -1;
+    }
+  }
+
+  public int opposite(int d) {
+    return d == 2 ? 2 : 1 - d;
+  }
+
+  public String name() {
+    return "triangle " + this.width + " " + this.height;
+  }
+}
+
+// a stack of square grids: right, down, left, up, then one level deeper and one level up
+class LayeredTopology implements Topology {
+  final int width;
+  final int height;
+  final int depth;
+
+  LayeredTopology(int width, int height, int depth) {
+    this.width = width;
+    this.height = height;
+    this.depth = depth;
+  }
+
+  public int size() {
+    return this.width * this.height * this.depth;
+  }
+
+  public int directions() {
+    return 6;
+  }
+
+  public int neighbor(int i, int d) {
+    int layer = this.width * this.height;
+    int inLayer = i % layer;
+    int x = inLayer % this.width;
+    if (d == 0) {
+      return x + 1 < this.width ? i + 1 : -1;
+    }
+    else if (d == 1) {
+      return inLayer + this.width < layer ? i + this.width : -1;
+    }
+    else if (d == 2) {
+      return x > 0 ? i - 1 : -1;
+    }
+    else if (d == 3) {
+      return inLayer >= this.width ? i - this.width : -1;
+    }
+    else if (d == 4) {
+      return i + layer < this.size() ? i + layer : -1;
+    }
+    else {
+      return i >= layer ? i - layer : -1;
+    }
+  }
+
+  public int opposite(int d) {
+    return d < 4 ? (d + 2) % 4 : 9 - d;
+  }
+
+  public String name() {
+    return "layered " + this.width + " " + this.height + " " + this.depth;
+  }
+}
+
+// a maze over any topology. every edge is numbered cell * directions + direction from the
+// lower numbered of its two cells, and one bit per number says whether it is a passage,
+// so there are no per cell objects and the arrays are never written after generation
+class GraphMaze {
+  final Topology topology;
+  final long[] open;
+
+  GraphMaze(Topology topology, long[] open) {
+    this.topology = topology;
+    this.open = open;
+  }
+
+  // generate a maze over the given topology with Kruskal's algorithm
+  static GraphMaze generate(Topology topology, Random rand, GeneratorScratch scratch) {
+    int n = topology.size();
+    int dirs = topology.directions();
+    scratch.ensure(n);
+    scratch.ensureEdges(n * dirs / 2 + dirs);
+    int[] edges = scratch.edges;
+    int[] parent = scratch.parent;
+
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      for (int d = 0; d < dirs; d++) {
+        if (topology.neighbor(i, d) > i) {
+          edges[count++] = i * dirs + d;
+        }
+      }
+    }
+    GeneratorScratch.shuffle(edges, count, rand);
+
+    long[] open = new long[(n * dirs + 63) >>> 6];
+    for (int i = 0; i < n; i++) {
+      parent[i] = i;
+    }
+    for (int e = 0; e < count; e++) {
+      int r1 = GeneratorScratch.find(parent, edges[e] / dirs);
+      int r2 = GeneratorScratch.find(parent, topology.neighbor(edges[e] / dirs, edges[e] % dirs));
+      if (r1 != r2) {
+        parent[r1] = r2;
+        SearchScratch.set(open, edges[e]);
+      }
+    }
+    return new GraphMaze(topology, open);
+  }
+
+  // is there a passage from cell i in direction d?
+  boolean open(int i, int d) {
+    int j = this.topology.neighbor(i, d);
+    if (j < 0) {
+      return false;
+    }
+    int dirs = this.topology.directions();
+    return j > i
+        ? SearchScratch.get(this.open, i * dirs + d)
+        : SearchScratch.get(this.open, j * dirs + this.topology.opposite(d));
+  }
+
+  // solve this maze from start to target by breadth or depth first search, adding
+  // neighbors in direction order with the same worklist rules as MazeGrid.search
+  Solution search(String algorithm, int start, int target) {
+    boolean dfs;
+    if (algorithm.equals(Solution.DFS)) {
+      dfs = true;
+    }
+    else if (algorithm.equals(Solution.BFS)) {
+      dfs = false;
+    }
+    else {
+      throw new IllegalArgumentException("Unknown solver: " + algorithm);
+    }
+
+    int n = this.topology.size();
+    int dirs = this.topology.directions();
+    int[] cameFrom = new int[n];
+    Arrays.fill(cameFrom, -1);
+    SearchScratch scratch = SearchScratch.LOCAL.get();
+    scratch.ensure(n, dirs);
+    long[] seen = scratch.seen;
+    int[] order = scratch.order;
+    int[] worklist = scratch.worklist;
+    int visited = 0;
+    int head = 0;
+    int tail = 0;
+
+    worklist[tail++] = start;
+    while (head < tail) {
+      int next = dfs ? worklist[--tail] : worklist[head++];
+      if (SearchScratch.get(seen, next)) {
+        continue;
+      }
+      SearchScratch.set(seen, next);
+      order[visited++] = next;
+      if (next == target) {
+        return new Solution(Arrays.copyOf(order, visited),
+            Solution.pathTo(cameFrom, start, target), cameFrom);
+      }
+      for (int d = 0; d < dirs; d++) {
+        if (this.open(next, d)) {
+          int to = this.topology.neighbor(next, d);
+          if (!SearchScratch.get(seen, to)) {
+            worklist[tail++] = to;
+            cameFrom[to] = next;
+          }
+        }
+      }
+    }
+    return new Solution(Arrays.copyOf(order, visited), new int[0], cameFrom);
+  }
+
+  // the number of passages in this maze
+  int passages() {
+    int count = 0;
+    for (long word : this.open) {
+      count += Long.bitCount(word);
+    }
+    return count;
+  }
+
+  // this maze as text: the topology's name on the first line, then one line per passage
+  // holding the two cells it joins, lower numbered first
+  String export() {
+    StringBuilder out = new StringBuilder(this.topology.name()).append('\n');
+    int dirs = this.topology.directions();
+    for (int i = 0; i < this.topology.size(); i++) {
+      for (int d = 0; d < dirs; d++) {
+        int j = this.topology.neighbor(i, d);
+        if (j > i && SearchScratch.get(this.open, i * dirs + d)) {
+          out.append(i).append(' ').append(j).append('\n');
+        }
+      }
+    }
+    return out.toString();
+  }
+}
+
+// a summary of how hard a maze is. the wall bits are read in one pass that packs each
+// cell's passages into a byte, and then three more passes run over those bytes: a walk of
+// every corridor and two distance searches for the solution and the diameter. on a 10M cell
+// grid the whole analysis takes about a second, half of it in the two searches.
+// corridors are the runs of cells with exactly two passages between cells that have any
+// other number, and their lengths are counted in a histogram whose last bucket holds
+// everything that long or longer
+class MazeStats {
+  static final int BUCKETS = 33;
+  static final int VISITED = 16;
+
+  final int cells;
+  final int deadEnds;
+  final int junctions;
+  final int crossroads;
+  final int turns;
+  final int straights;
+  final int solutionLength;
+  final int diameter;
+  final int diameterStart;
+  final int diameterEnd;
+  // the mean number of ways forward at a junction, not counting the way in
+  final double branchingFactor;
+  // the mean corridor length: high for mazes of long winding rivers, low for busy ones
+  final double riverFactor;
+  final int[] corridors;
+
+  MazeStats(int cells, int deadEnds, int junctions, int crossroads, int turns, int straights,
+            int solutionLength, int diameter, int diameterStart, int diameterEnd,
+            double branchingFactor, double riverFactor, int[] corridors) {
+    this.cells = cells;
+    this.deadEnds = deadEnds;
+    this.junctions = junctions;
+    this.crossroads = crossroads;
+    this.turns = turns;
+    this.straights = straights;
+    this.solutionLength = solutionLength;
+    this.diameter = diameter;
+    this.diameterStart = diameterStart;
+    this.diameterEnd = diameterEnd;
+    this.branchingFactor = branchingFactor;
+    this.riverFactor = riverFactor;
+    this.corridors = corridors;
+  }
+
+  // analyze the given grid, measuring the solution between the given cells
+  static MazeStats analyze(MazeGrid g, int start, int target) {
+    int n = g.size();
+    int width = g.width;
+    int words = g.rowWords;
+    // the passages out of every cell, in the same four bits MazeGrid.passages uses, so the
+    // walks below never go back to the words or divide to find a row
+    byte[] open = new byte[n];
+    // one pass over the rows, reading the bits straight out of the words and counting how
+    // many cells have each of the sixteen ways of being open
+    int[] shapes = new int[16];
+    for (int y = 0; y < g.height; y++) {
+      int row = y * words;
+      int at = y * width;
+      for (int x = 0; x < width; x++) {
+        int word = row + (x >>> 6);
+        int bits = (int) (g.rightWord(word) >>> x) & 1;
+        bits |= ((int) (g.downWord(word) >>> x) & 1) << 1;
+        if (x > 0) {
+          bits |= ((int) (g.rightWord(row + ((x - 1) >>> 6)) >>> (x - 1)) & 1) << 2;
+        }
+        if (y > 0) {
+          bits |= ((int) (g.downWord(word - words) >>> x) & 1) << 3;
+        }
+        open[at + x] = (byte) bits;
+        shapes[bits] += 1;
+      }
+    }
+    int deadEnds = 0;
+    int junctions = 0;
+    int crossroads = shapes[15];
+    int straights = shapes[5] + shapes[10];
+    int turns = -straights;
+    long ways = 0;
+    for (int bits = 0; bits < 16; bits++) {
+      int deg = Integer.bitCount(bits);
+      if (deg == 1) {
+        deadEnds += shapes[bits];
+      }
+      else if (deg == 2) {
+        turns += shapes[bits];
+      }
+      else if (deg >= 3) {
+        junctions += shapes[bits];
+        ways += (long) shapes[bits] * (deg - 1);
+      }
+    }
+
+    // walk every corridor out from the cells that are not part of one. the cells along the
+    // way are flagged with the VISITED bit so the walk from the far end is skipped
+    int[] step = {1, width, -1, -width};
+    int[] corridors = new int[MazeStats.BUCKETS];
+    long corridorCells = 0;
+    int corridorCount = 0;
+    for (int c = 0; c < n; c++) {
+      int bits = open[c] & 15;
+      if (Integer.bitCount(bits) == 2 || bits == 0) {
+        continue;
+      }
+      for (int d = 0; d < 4; d++) {
+        if ((bits >>> d & 1) == 0) {
+          continue;
+        }
+        int at = c + step[d];
+        if ((open[at] & MazeStats.VISITED) != 0) {
+          continue;
+        }
+        int from = d ^ 2;
+        int length = 0;
+        while (Integer.bitCount(open[at] & 15) == 2) {
+          length += 1;
+          int exits = open[at] & 15 & ~(1 << from);
+          open[at] |= MazeStats.VISITED;
+          int out = Integer.numberOfTrailingZeros(exits);
+          at += step[out];
+          from = out ^ 2;
+        }
+        // a passage straight between two such cells is seen from both ends
+        if (length > 0 || c < at) {
+          corridors[Math.min(length, MazeStats.BUCKETS - 1)] += 1;
+          corridorCells += length;
+          corridorCount += 1;
+        }
+      }
+    }
+
+    SearchScratch scratch = SearchScratch.LOCAL.get();
+    scratch.ensure(n);
+    int[] dist = scratch.dist;
+    int[] queue = scratch.order;
+    int far = MazeStats.distances(open, step, start, dist, queue);
+    int solutionLength = dist[target];
+    int end = MazeStats.distances(open, step, far, dist, queue);
+
+    return new MazeStats(n, deadEnds, junctions, crossroads, turns, straights,
+        solutionLength, dist[end], far, end,
+        junctions == 0 ? 0.0 : (double) ways / junctions,
+        corridorCount == 0 ? 0.0 : (double) corridorCells / corridorCount,
+        corridors);
+  }
+
+  // MazeGrid.distances over the passage bits gathered by analyze
+  static int distances(byte[] open, int[] step, int from, int[] dist, int[] work) {
+    int far = MazeStats.distances(open, step, from, dist, work, true);
+    return far >= 0 ? far : MazeStats.distances(open, step, from, dist, work, false);
+  }
+
+  // when the passages form a tree there is only one way to reach each cell, so the cells can
+  // be taken off the end of the work list instead of the front. the distances come out the
+  // same, but the walk follows each corridor to its end and stays among cells that are
+  // already cached. in a tree the only cell seen twice is the one just come from, so if
+  // anything else turns up again there is a loop, and this gives up and returns -1
+  static int distances(byte[] open, int[] step, int from, int[] dist, int[] work,
+                       boolean tree) {
+    Arrays.fill(dist, 0, open.length, -1);
+    int head = 0;
+    int tail = 0;
+    long reached = 1;
+    long seen = 0;
+    int far = from;
+    dist[from] = 0;
+    work[tail++] = from;
+    while (head < tail) {
+      int next = tree ? work[--tail] : work[head++];
+      int bits = open[next];
+      int reach = dist[next] + 1;
+      for (int d = 0; d < 4; d++) {
+        int to = next + step[d];
+        if ((bits >>> d & 1) == 0) {
+          continue;
+        }
+        if (dist[to] < 0) {
+          dist[to] = reach;
+          work[tail++] = to;
+          reached += 1;
+          far = reach >= dist[far] ? to : far;
+        }
+        else {
+          seen += 1;
+        }
+      }
+    }
+    return tree && seen != reached - 1 ? -1 : far;
+  }
+}
+
+// a breadth first flood over a MazeGrid that moves 64 cells at a time. the frontier and the
+// visited cells are row-aligned bitmaps laid out like the grid's own, and each level moves
+// the whole frontier one step: right and left with shifts gated by the right bits, carrying
+// between the words of a row, and down and up by and-ing with the down bits. only the words
+// the frontier is in are looked at, so a level costs in proportion to the frontier and not
+// to the grid. the buffers are kept between floods of the same grid
+class FloodFill {
+  final MazeGrid grid;
+  final long[] visited;
+  long[] frontier;
+  long[] next;
+  // the indices of the words holding the frontier, and of the words the next level has
+  // reached so far
+  int[] active;
+  int[] upcoming;
+  int activeCount;
+  int upcomingCount;
+
+  FloodFill(MazeGrid grid) {
+    int words = grid.rowWords * grid.height;
+    this.grid = grid;
+    this.visited = new long[words];
+    this.frontier = new long[words];
+    this.next = new long[words];
+    this.active = new int[words];
+    this.upcoming = new int[words];
+    this.activeCount = 0;
+    this.upcomingCount = 0;
+  }
+
+  // the cells reachable from the given one, as a row-aligned bitmap
+  long[] reachable(int from) {
+    this.flood(from, null);
+    return this.visited.clone();
+  }
+
+  // EFFECT: fill dist with the number of steps from the given cell to every cell, or -1 for
+  // cells that cannot be reached. returns one of the farthest cells
+  int distances(int from, int[] dist) {
+    Arrays.fill(dist, 0, this.grid.size(), -1);
+    return this.flood(from, dist);
+  }
+
+  // EFFECT: flood out from the given cell, recording the level each cell is reached at in
+  // dist unless it is null. returns the lowest cell of the last level
+  int flood(int from, int[] dist) {
+    MazeGrid g = this.grid;
+    int words = g.rowWords;
+    Arrays.fill(this.visited, 0L);
+    int x = from % g.width;
+    int first = from / g.width * words + (x >>> 6);
+    this.frontier[first] = 1L << x;
+    this.visited[first] = 1L << x;
+    this.active[0] = first;
+    this.activeCount = 1;
+    if (dist != null) {
+      dist[from] = 0;
+    }
+
+    int last = from;
+    for (int level = 1; this.activeCount > 0; level++) {
+      this.upcomingCount = 0;
+      for (int a = 0; a < this.activeCount; a++) {
+        int k = this.active[a];
+        long f = this.frontier[k];
+        long r = g.rightWord(k);
+        int w = k % words;
+        this.reach(k, (f & r) << 1);
+        this.reach(k, (f >>> 1) & r);
+        if (w + 1 < words) {
+          this.reach(k + 1, (f & r) >>> 63);
+        }
+        if (w > 0) {
+          this.reach(k - 1, (f << 63) & g.rightWord(k - 1));
+        }
+        if (k + words < g.words()) {
+          this.reach(k + words, f & g.downWord(k));
+        }
+        if (k >= words) {
+          this.reach(k - words, f & g.downWord(k - words));
+        }
+        this.frontier[k] = 0L;
+      }
+
+      // the next level becomes the frontier, and the old frontier's cleared words are
+      // ready to collect the level after
+      long[] bits = this.frontier;
+      this.frontier = this.next;
+      this.next = bits;
+      int[] list = this.active;
+      this.active = this.upcoming;
+      this.upcoming = list;
+      this.activeCount = this.upcomingCount;
+
+      int lowest = Integer.MAX_VALUE;
+      for (int a = 0; a < this.activeCount; a++) {
+        int k = this.active[a];
+        long reached = this.frontier[k];
+        this.visited[k] |= reached;
+        int base = k / words * g.width + (k % words << 6);
+        lowest = Math.min(lowest, base + Long.numberOfTrailingZeros(reached));
+        if (dist != null) {
+          for (long b = reached; b != 0; b &= b - 1) {
+            dist[base + Long.numberOfTrailingZeros(b)] = level;
+          }
+        }
+      }
+      if (this.activeCount > 0) {
+        last = lowest;
+      }
+    }
+    return last;
+  }
+
+  // EFFECT: add the given cells of word k to the next level, leaving out any already seen
+  void reach(int k, long cells) {
+    long fresh = cells & ~this.visited[k];
+    if (fresh != 0) {
+      if (this.next[k] == 0) {
+        this.upcoming[this.upcomingCount++] = k;
+      }
+      this.next[k] |= fresh;
+    }
+  }
+}
+
+// an unbounded maze split into square chunks. each chunk is an ordinary MazeGrid generated
+// from the global seed and its own coordinates, and neighboring chunks are joined by one
+// door per shared side, placed by hashing the same values. chunks are only generated when
+// something asks about a cell inside them, and the least recently used ones are dropped
+// once there are too many; dropping one is safe because it regenerates identically
+class ChunkedMaze {
+  final long seed;
+  final int chunkSize;
+  final int capacity;
+  final LinkedHashMap<Long, MazeGrid> chunks;
+  final GeneratorScratch scratch;
+  long generated;
+  long evicted;
+
+  ChunkedMaze(long seed, int chunkSize, int capacity) {
+    this.seed = seed;
+    this.chunkSize = chunkSize;
+    this.capacity = capacity;
+    this.chunks = new LinkedHashMap<Long, MazeGrid>(16, 0.75f, true);
+    this.scratch = new GeneratorScratch();
+    this.generated = 0;
+    this.evicted = 0;
+  }
+
+  // mix the given values into one well spread 64 bit hash
+  static long mix(long seed, long a, long b, long c) {
+    long h = seed;
+    h = ChunkedMaze.scramble(h ^ a);
+    h = ChunkedMaze.scramble(h ^ b);
+    return ChunkedMaze.scramble(h ^ c);
+  }
+
+  // the SplitMix64 output for the state before the given one
+  static long scramble(long z) {
+    return MazeRandom.mix(z + MazeRandom.GAMMA);
+  }
+
+  // the key of the chunk at the given chunk coordinates
+  static long key(int cx, int cy) {
+    return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+  }
+
+  // the chunk at the given chunk coordinates, generating it if it is not held
+  MazeGrid chunk(int cx, int cy) {
+    long key = ChunkedMaze.key(cx, cy);
+    MazeGrid held = this.chunks.get(key);
+    if (held != null) {
+      return held;
+    }
+    MazeGrid made = MazeGrid.generate(this.chunkSize, this.chunkSize,
+        new Random(ChunkedMaze.mix(this.seed, cx, cy, 0)), this.scratch);
+    this.chunks.put(key, made);
+    this.generated += 1;
+    Iterator<Long> it = this.chunks.keySet().iterator();
+    while (this.chunks.size() > this.capacity) {
+      it.next();
+      it.remove();
+      this.evicted += 1;
+    }
+    return made;
+  }
+
+  // the offset along the shared side of the door leading right (direction 0) or down
+  // (direction 1) out of the given chunk
+  int door(int cx, int cy, int direction) {
+    return (int) Math.floorMod(ChunkedMaze.mix(this.seed, cx, cy, 1 + direction),
+        (long) this.chunkSize);
+  }
+
+  // is there a passage from the cell at (x, y) in the given direction: 0 right, 1 down,
+  // 2 left, 3 up?
+  boolean canMove(int x, int y, int direction) {
+    if (direction == 2) {
+      return this.canMove(x - 1, y, 0);
+    }
+    else if (direction == 3) {
+      return this.canMove(x, y - 1, 1);
+    }
+    int cx = Math.floorDiv(x, this.chunkSize);
+    int cy = Math.floorDiv(y, this.chunkSize);
+    int lx = Math.floorMod(x, this.chunkSize);
+    int ly = Math.floorMod(y, this.chunkSize);
+    if (direction == 0 && lx == this.chunkSize - 1) {
+      return ly == this.door(cx, cy, 0);
+    }
+    else if (direction == 1 && ly == this.chunkSize - 1) {
+      return lx == this.door(cx, cy, 1);
+    }
+    MazeGrid g = this.chunk(cx, cy);
+    int i = ly * this.chunkSize + lx;
+    return direction == 0 ? g.openRight(i) : g.openDown(i);
+  }
+
+  // the cells from (sx, sy) to (tx, ty) found by breadth first search, target first, as
+  // pairs of x and y, or null if the target is not found within the given number of cells.
+  // only the chunks the search reaches are generated
+  int[] solve(int sx, int sy, int tx, int ty, int maxCells) {
+    HashMap<Long, Long> cameFrom = new HashMap<Long, Long>();
+    ArrayDeque<Long> worklist = new ArrayDeque<Long>();
+    long start = ChunkedMaze.key(sx, sy);
+    long target = ChunkedMaze.key(tx, ty);
+    cameFrom.put(start, start);
+    worklist.add(start);
+
+    while (!worklist.isEmpty() && cameFrom.size() <= maxCells) {
+      long next = worklist.remove();
+      if (next == target) {
+        ArrayList<Long> path = new ArrayList<Long>();
+        for (long at = target; at != start; at = cameFrom.get(at)) {
+          path.add(at);
+        }
+        path.add(start);
+        int[] result = new int[2 * path.size()];
+        for (int i = 0; i < path.size(); i++) {
+          result[2 * i] = (int) (path.get(i) >> 32);
+          result[2 * i + 1] = (int) (long) path.get(i);
+        }
+        return result;
+      }
+      int x = (int) (next >> 32);
+      int y = (int) next;
+      for (int d = 0; d < 4; d++) {
+        if (this.canMove(x, y, d)) {
+          int nx = d == 0 ? x + 1 : d == 2 ? x - 1 : x;
+          int ny = d == 1 ? y + 1 : d == 3 ? y - 1 : y;
+          long neighbor = ChunkedMaze.key(nx, ny);
+          if (!cameFrom.containsKey(neighbor)) {
+            cameFrom.put(neighbor, next);
+            worklist.add(neighbor);
+          }
+        }
+      }
+    }
+    return null;
+  }
+}
+
+// a maze whose walls are only worked out when something first reaches them, so making one
+// costs the same at any size. it is a Sidewinder maze: the top row is one corridor, and
+// every other row is cut into runs by a coin tossed at each cell, each run opening up into
+// the row above from one of its cells. the coins and the choices are hashes of the seed
+// and the cell, so any cell's passages follow from a look at its own run and the run below
+// it, about two cells each way, with nothing else generated. growing tree and the
+// recursive backtracker cannot be run this way, since what they carve at one cell depends
+// on the order they reached every cell before it
+class LazyMaze {
+  // the cells a page of generated passages holds
+  static final int PAGE_BITS = 12;
+  // set on a cell's passages once they have been generated
+  static final int GENERATED = 16;
+
+  final int width;
+  final int height;
+  final long seed;
+  final int target;
+  // the passages of every cell generated so far, a page at a time, by page number
+  final HashMap<Integer, byte[]> pages;
+  long generated;
+  // the player's cell and the cells it has been to, like the fields of Maze
+  int currentIndex;
+  final BitSet seen;
+
+  LazyMaze(int width, int height, long seed) {
+    this.width = width;
+    this.height = height;
+    this.seed = seed;
+    this.target = width * height - 1;
+    this.pages = new HashMap<Integer, byte[]>();
+    this.generated = 0;
+    this.currentIndex = 0;
+    this.seen = new BitSet();
+  }
+
+  // does the run holding (x, y) end at x? the last cell of a row always does, and in the
+  // top row nothing else does
+  boolean closes(int x, int y) {
+    return x == this.width - 1
+        || y > 0 && (ChunkedMaze.mix(this.seed, x, y, 0) & 1) == 0;
+  }
+
+  // does (x, y) have a passage up: is it the cell its run opens upward from?
+  boolean opensUp(int x, int y) {
+    if (y == 0) {
+      return false;
+    }
+    int first = x;
+    while (first > 0 && !this.closes(first - 1, y)) {
+      first -= 1;
+    }
+    int last = x;
+    while (!this.closes(last, y)) {
+      last += 1;
+    }
+    long pick = Math.floorMod(ChunkedMaze.mix(this.seed, last, y, 1), (long) (last - first + 1));
+    return first + pick == x;
+  }
+
+  // the passages out of cell i as four bits, 1 right, 2 down, 4 left and 8 up like
+  // MazeGrid.passages, generating them the first time they are asked for
+  int passages(int i) {
+    byte[] page = this.pages.get(i >>> LazyMaze.PAGE_BITS);
+    if (page == null) {
+      page = new byte[1 << LazyMaze.PAGE_BITS];
+      this.pages.put(i >>> LazyMaze.PAGE_BITS, page);
+    }
+    int at = i & ((1 << LazyMaze.PAGE_BITS) - 1);
+    if (page[at] == 0) {
+      int x = i % this.width;
+      int y = i / this.width;
+      int bits = LazyMaze.GENERATED;
+      bits |= this.closes(x, y) ? 0 : 1;
+      bits |= y + 1 < this.height && this.opensUp(x, y + 1) ? 2 : 0;
+      bits |= x > 0 && !this.closes(x - 1, y) ? 4 : 0;
+      bits |= this.opensUp(x, y) ? 8 : 0;
+      page[at] = (byte) bits;
+      this.generated += 1;
+    }
+    return page[at] & 15;
+  }
+
+  // the neighbor of cell i in the given direction (0 right, 1 down, 2 left, 3 up) if there
+  // is a passage to it, otherwise -1
+  int step(int i, int direction) {
+    if ((this.passages(i) >>> direction & 1) == 0) {
+      return -1;
+    }
+    return direction == 0 ? i + 1 : direction == 1 ? i + this.width
+        : direction == 2 ? i - 1 : i - this.width;
+  }
+
+  // EFFECT: move the player like Maze.maybeMove, 1 right, 2 down, 3 left or 4 up, if there
+  // is a passage that way. only the cells on either side are generated
+  void maybeMove(int dir) {
+    int next = this.step(this.currentIndex, dir - 1);
+    if (next >= 0) {
+      this.currentIndex = next;
+      this.seen.set(next);
+    }
+  }
+
+  // solve from the top left to the bottom right corner like Maze.search, depth first or
+  // breadth first, generating only the cells the search reaches. the worklist and the
+  // parents are kept by cell in hash maps, so they grow with the search and not the maze,
+  // and the solution has no cameFrom array
+  Solution search(boolean dfs) {
+    HashMap<Integer, Integer> cameFrom = new HashMap<Integer, Integer>();
+    ArrayDeque<Integer> worklist = new ArrayDeque<Integer>();
+    BitSet done = new BitSet();
+    ArrayList<Integer> visited = new ArrayList<Integer>();
+    worklist.add(0);
+    cameFrom.put(0, 0);
+    while (!worklist.isEmpty()) {
+      int next = dfs ? worklist.removeLast() : worklist.removeFirst();
+      if (done.get(next)) {
+        continue;
+      }
+      done.set(next);
+      visited.add(next);
+      if (next == this.target) {
+        ArrayList<Integer> path = new ArrayList<Integer>();
+        for (int at = next; at != 0; at = cameFrom.get(at)) {
+          path.add(at);
+        }
+        path.add(0);
+        return new Solution(LazyMaze.toArray(visited), LazyMaze.toArray(path), null);
+      }
+      for (int d = 0; d < 4; d++) {
+        int to = this.step(next, d);
+        if (to >= 0 && !cameFrom.containsKey(to)) {
+          cameFrom.put(to, next);
+          worklist.add(to);
+        }
+      }
+    }
+    return new Solution(LazyMaze.toArray(visited), new int[0], null);
+  }
+
+  // the given numbers as an array
+  static int[] toArray(ArrayList<Integer> list) {
+    int[] result = new int[list.size()];
+    for (int k = 0; k < result.length; k++) {
+      result[k] = list.get(k);
+    }
+    return result;
+  }
+
+  // the whole maze as a MazeGrid, generating every cell
+  MazeGrid toGrid() {
+    int words = MazeGrid.rowWords(this.width);
+    long[] right = new long[words * this.height];
+    long[] down = new long[words * this.height];
+    for (int i = 0; i < this.width * this.height; i++) {
+      int open = this.passages(i);
+      if ((open & 1) != 0) {
+        MazeGrid.set(right, i, this.width, words);
+      }
+      if ((open & 2) != 0) {
+        MazeGrid.set(down, i, this.width, words);
+      }
+    }
+    return new MazeGrid(this.width, this.height, right, down);
+  }
+}
+
+// the shape of a maze: one bit per cell of a rectangle saying whether the cell takes part.
+// cells keep their dense row major indices, and like MazeGrid every row starts on a fresh
+// long, so generation can skip the inactive cells a word at a time
+class CellMask {
+  final int width;
+  final int height;
+  final int rowWords;
+  final long[] bits;
+
+  CellMask(int width, int height) {
+    this.width = width;
+    this.height = height;
+    this.rowWords = MazeGrid.rowWords(width);
+    this.bits = new long[this.rowWords * height];
+  }
+
+  // a mask from the given rows of text, where '#' marks an active cell
+  static CellMask fromRows(String... rows) {
+    int width = 0;
+    for (String row : rows) {
+      width = Math.max(width, row.length());
+    }
+    CellMask mask = new CellMask(width, rows.length);
+    for (int y = 0; y < rows.length; y++) {
+      for (int x = 0; x < rows[y].length(); x++) {
+        if (rows[y].charAt(x) == '#') {
+          mask.activate(y * width + x);
+        }
+      }
+    }
+    return mask;
+  }
+
+  // a mask from the given image with one cell per pixel, where dark pixels are active
+  static CellMask fromImage(BufferedImage image) {
+    CellMask mask = new CellMask(image.getWidth(), image.getHeight());
+    for (int y = 0; y < mask.height; y++) {
+      for (int x = 0; x < mask.width; x++) {
+        int rgb = image.getRGB(x, y);
+        int light = ((rgb >>> 16) & 255) * 299 + ((rgb >>> 8) & 255) * 587 + (rgb & 255) * 114;
+        if (light < 128000) {
+          mask.activate(y * mask.width + x);
+        }
+      }
+    }
+    return mask;
+  }
+
+  // EFFECT: make the cell at the given index active
+  void activate(int i) {
+    MazeGrid.set(this.bits, i, this.width, this.rowWords);
+  }
+
+  // is the cell at the given index active?
+  boolean active(int i) {
+    return (this.bits[MazeGrid.word(i, this.width, this.rowWords)] >>> (i % this.width) & 1L)
+        != 0;
+  }
+
+  // the index of the first active cell, or -1 if there is none
+  int first() {
+    for (int i = 0; i < this.width * this.height; i++) {
+      if (this.active(i)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // the index of the last active cell, or -1 if there is none
+  int last() {
+    for (int i = this.width * this.height - 1; i >= 0; i--) {
+      if (this.active(i)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
+
+// the random numbers behind version 2 mazes: SplitMix64 for the bits, and Lemire's
+// multiply and reject for numbers below a bound. both are written out here rather than left
+// to the JDK, so a seed gives the same numbers on every JVM. it is a Random so that every
+// generator can take it in place of one
+class MazeRandom extends Random {
+  private static final long serialVersionUID = 1L;
+  // the step between one SplitMix64 state and the next
+  static final long GAMMA = 0x9E3779B97F4A7C15L;
+
+  // the state of this stream, in an array of one so the same helpers that step the streams
+  // AgentSim keeps for its agents step this one
+  final long[] state;
+
+  MazeRandom(long seed) {
+    super(0L);
+    this.state = new long[] {seed};
+  }
+
+  // Random's own constructor calls this before the state is made, and the seed it is given
+  // there is replaced by the constructor above
+  @Override
+  public void setSeed(long seed) {
+    if (this.state != null) {
+      this.state[0] = seed;
+    }
+  }
+
+  @Override
+  public long nextLong() {
+    return MazeRandom.next(this.state, 0);
+  }
+
+  @Override
+  protected int next(int bits) {
+    return (int) (this.nextLong() >>> (64 - bits));
+  }
+
+  // a number from 0 up to but not including bound, with every one equally likely
+  @Override
+  public int nextInt(int bound) {
+    if (bound <= 0) {
+      throw new IllegalArgumentException("bound must be positive");
+    }
+    return MazeRandom.below(this.state, 0, bound);
+  }
+
+  // the SplitMix64 finalizer, which spreads the bits of the given state over all 64 bits
+  static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  // EFFECT: step the SplitMix64 stream whose state is states[k] and return its next output
+  static long next(long[] states, int k) {
+    states[k] += MazeRandom.GAMMA;
+    return MazeRandom.mix(states[k]);
+  }
+
+  // EFFECT: a number from 0 up to but not including the given positive bound from the
+  // stream whose state is states[k], with every one equally likely. the high half of an
+  // output times the bound puts it in range, and the few products that would make the low
+  // numbers more likely are thrown away and drawn again
+  static int below(long[] states, int k, int bound) {
+    long m = (MazeRandom.next(states, k) >>> 32) * bound;
+    long low = m & 0xFFFFFFFFL;
+    if (low < bound) {
+      long threshold = (0x100000000L - bound) % bound;
+      while (low < threshold) {
+        m = (MazeRandom.next(states, k) >>> 32) * bound;
+        low = m & 0xFFFFFFFFL;
+      }
+    }
+    return (int) (m >>> 32);
+  }
+}
+
+// reusable primitive buffers for generating mazes: the numbered edge list, the union/find
+// parents, and the sort keys and buffers for weighted mazes. one scratch is owned by one
+// thread at a time, and it only grows
+class GeneratorScratch {
+  int[] edges;
+  int[] parent;
+  int[] keys;
+  int[] sorted;
+  int[] counts;
+  // the passages right and down of the last grid generated into these buffers
+  long[][] bits;
+
+  GeneratorScratch() {
+    this.edges = new int[0];
+    this.parent = new int[0];
+    this.keys = new int[0];
+    this.sorted = new int[0];
+    this.counts = new int[257];
+    this.bits = new long[][] {new long[0], new long[0]};
+  }
+
+  // EFFECT: hand back the bitmap with the given index, exactly the given number of longs
+  // long and with every bit clear, reusing the one from the last grid when it fits
+  long[] clearedBits(int which, int words) {
+    if (this.bits[which].length != words) {
+      this.bits[which] = new long[words];
+    }
+    else {
+      Arrays.fill(this.bits[which], 0L);
+    }
+    return this.bits[which];
+  }
+
+  // EFFECT: make sure the buffers can hold a grid of the given number of cells
+  void ensure(int cells) {
+    if (this.parent.length < cells) {
+      this.parent = new int[cells];
+    }
+    this.ensureEdges(2 * cells);
+  }
+
+  // EFFECT: make sure the edge buffers can hold the given number of edges
+  void ensureEdges(int count) {
+    if (this.edges.length < count) {
+      this.edges = new int[count];
+      this.keys = new int[count];
+      this.sorted = new int[count];
+    }
+  }
+
+  // EFFECT: stably sort the first count items by keys[item], a byte at a time from the
+  // least significant end, skipping the bytes every key leaves empty
+  void sortByKey(int[] items, int count) {
+    int max = 0;
+    for (int i = 0; i < count; i++) {
+      max |= this.keys[items[i]];
+    }
+    int[] from = items;
+    int[] to = this.sorted;
+    for (int shift = 0; shift < 32 && (max >>> shift) != 0; shift += 8) {
+      Arrays.fill(this.counts, 0);
+      for (int i = 0; i < count; i++) {
+        this.counts[((this.keys[from[i]] >>> shift) & 255) + 1] += 1;
+      }
+      for (int b = 1; b < 257; b++) {
+        this.counts[b] += this.counts[b - 1];
+      }
+      for (int i = 0; i < count; i++) {
+        to[this.counts[(this.keys[from[i]] >>> shift) & 255]++] = from[i];
+      }
+      int[] tmp = from;
+      from = to;
+      to = tmp;
+    }
+    if (from != items) {
+      System.arraycopy(from, 0, items, 0, count);
+    }
+  }
+
+  // EFFECT: shuffle the first count items with the given random numbers. this is the
+  // shuffle every generator uses, and is part of what a maze version pins down: from the
+  // top down, each item swaps with one drawn from nextInt over the items not yet placed,
+  // which is also exactly the swaps Collections.shuffle makes on a list
+  static void shuffle(int[] items, int count, Random rand) {
+    for (int i = count; i > 1; i--) {
+      int j = rand.nextInt(i);
+      int tmp = items[i - 1];
+      items[i - 1] = items[j];
+      items[j] = tmp;
+    }
+  }
+
+  // find the representative of the given cell, halving the path as it goes
+  static int find(int[] parent, int c) {
+    while (parent[c] != c) {
+      parent[c] = parent[parent[c]];
+      c = parent[c];
+    }
+    return c;
+  }
+}
+
+// reusable per-thread buffers for solving: a bitmap of seen cells, the visit order and the
+// worklist. they only grow, and the seen bits are cleared at the start of every solve
+class SearchScratch {
+  static final ThreadLocal<SearchScratch> LOCAL = ThreadLocal.withInitial(SearchScratch::new);
+
+  long[] seen;
+  int[] order;
+  int[] worklist;
+  int[] dist;
+  long[] heap;
+
+  SearchScratch() {
+    this.seen = new long[0];
+    this.order = new int[0];
+    this.worklist = new int[1];
+    this.dist = new int[0];
+    this.heap = new long[1];
+  }
+
+  // EFFECT: make sure the buffers can hold a solve over the given number of cells of a
+  // square grid, and clear the seen bits
+  void ensure(int cells) {
+    this.ensure(cells, 4);
+  }
+
+  // EFFECT: make sure the buffers can hold a solve over the given number of cells that
+  // each have at most the given number of neighbors, and clear the seen bits
+  void ensure(int cells, int degree) {
+    if (this.order.length < cells) {
+      this.seen = new long[(cells + 63) >>> 6];
+      this.order = new int[cells];
+      this.dist = new int[cells];
+      this.heap = new long[4 * cells + 1];
+    }
+    else {
+      Arrays.fill(this.seen, 0L);
+    }
+    if (this.worklist.length < degree * cells + 1) {
+      this.worklist = new int[degree * cells + 1];
+    }
+  }
+
+  // is bit i of the given bitmap set?
+  static boolean get(long[] bits, int i) {
+    return (bits[i >>> 6] & (1L << i)) != 0;
+  }
+
+  // EFFECT: set bit i of the given bitmap
+  static void set(long[] bits, int i) {
+    bits[i >>> 6] |= 1L << i;
+  }
+
+  // EFFECT: add the given entry to the binary min-heap of the given size, returning the
+  // new size
+  static int push(long[] heap, int size, long entry) {
+    int at = size;
+    while (at > 0 && heap[(at - 1) >>> 1] > entry) {
+      heap[at] = heap[(at - 1) >>> 1];
+      at = (at - 1) >>> 1;
+    }
+    heap[at] = entry;
+    return size + 1;
+  }
+
+  // EFFECT: remove the smallest entry from the binary min-heap of the given size,
+  // returning the new size
+  static int pop(long[] heap, int size) {
+    long last = heap[size - 1];
+    int n = size - 1;
+    int at = 0;
+    while (2 * at + 1 < n) {
+      int child = 2 * at + 1;
+      if (child + 1 < n && heap[child + 1] < heap[child]) {
+        child += 1;
+      }
+      if (heap[child] >= last) {
+        break;
+      }
+      heap[at] = heap[child];
+      at = child;
+    }
+    if (n > 0) {
+      heap[at] = last;
+    }
+    return n;
+  }
+}
+
+// receives the mazes produced by a BatchGenerator. calls are never concurrent
+interface MazeSink {
+  // receive the grid generated for the spec at the given position in the input
+  void accept(long index, MazeKey spec, MazeGrid grid);
+}
+
+// generates many mazes in parallel on a work stealing pool. every worker thread keeps its
+// own scratch buffers, the number of specs in flight is bounded so arbitrarily long inputs
+// can be streamed, and results reach the sink either in input order or as they finish
+class BatchGenerator {
+  final ForkJoinPool pool;
+  final int window;
+  final ThreadLocal<GeneratorScratch> scratch;
+
+  BatchGenerator(int parallelism) {
+    this.pool = new ForkJoinPool(parallelism);
+    this.window = 4 * parallelism;
+    this.scratch = ThreadLocal.withInitial(GeneratorScratch::new);
+  }
+
+  // generate every spec from the given iterator and hand the results to the sink,
+  // returning once all of them have been delivered
+  void run(Iterator<MazeKey> specs, MazeSink sink, boolean ordered) {
+    BatchRun batch = new BatchRun(sink, ordered, this.window);
+    long index = 0;
+    while (specs.hasNext() && batch.failure == null) {
+      MazeKey spec = specs.next();
+      long at = index;
+      batch.permits.acquireUninterruptibly();
+      this.pool.execute(() -> batch.finish(at, spec, this.generate(spec, batch)));
+      index += 1;
+    }
+    batch.permits.acquireUninterruptibly(this.window);
+    if (batch.failure != null) {
+      throw new RuntimeException("Maze generation failed", batch.failure);
+    }
+  }
+
+  // generate one spec with this worker's scratch buffers, recording any failure. errors
+  // are caught too, so a spec that runs out of memory still reaches finish and frees its
+  // permit instead of leaving run waiting for it forever
+  MazeGrid generate(MazeKey spec, BatchRun batch) {
+    try {
+      return MazeGrid.generate(spec, this.scratch.get());
+    }
+    catch (Throwable e) {
+      batch.fail(e);
+      return null;
+    }
+  }
+
+  // EFFECT: stop the worker threads once queued work is done
+  void shutdown() {
+    this.pool.shutdown();
+  }
+}
+
+// the bookkeeping of one BatchGenerator.run: the in-flight permits, the results waiting
+// for their turn when delivering in order, and the first failure seen
+class BatchRun {
+  final MazeSink sink;
+  final boolean ordered;
+  final Semaphore permits;
+  final HashMap<Long, MazeKey> waitingSpecs;
+  final HashMap<Long, MazeGrid> waitingGrids;
+  long nextIndex;
+  volatile Throwable failure;
+
+  BatchRun(MazeSink sink, boolean ordered, int window) {
+    this.sink = sink;
+    this.ordered = ordered;
+    this.permits = new Semaphore(window);
+    this.waitingSpecs = new HashMap<Long, MazeKey>();
+    this.waitingGrids = new HashMap<Long, MazeGrid>();
+    this.nextIndex = 0;
+    this.failure = null;
+  }
+
+  // EFFECT: deliver a finished grid, or hold it until every earlier one has been delivered
+  synchronized void finish(long index, MazeKey spec, MazeGrid grid) {
+    if (!this.ordered) {
+      this.deliver(index, spec, grid);
+      return;
+    }
+    this.waitingSpecs.put(index, spec);
+    this.waitingGrids.put(index, grid);
+    while (this.waitingSpecs.containsKey(this.nextIndex)) {
+      try {
+        this.deliver(this.nextIndex, this.waitingSpecs.remove(this.nextIndex),
+            this.waitingGrids.remove(this.nextIndex));
+      }
+      finally {
+        this.nextIndex += 1;
+      }
+    }
+  }
+
+  // EFFECT: hand one grid to the sink and free its slot. failed specs are skipped, and
+  // anything the sink throws, errors included, is recorded rather than left to stop the
+  // later grids from ever being delivered
+  void deliver(long index, MazeKey spec, MazeGrid grid) {
+    try {
+      if (grid != null && this.failure == null) {
+        this.sink.accept(index, spec, grid);
+      }
+    }
+    catch (Throwable e) {
+      this.fail(e);
+    }
+    finally {
+      this.permits.release();
+    }
+  }
+
+  // EFFECT: remember the first failure so the run can report it
+  synchronized void fail(Throwable t) {
+    if (this.failure == null) {
+      this.failure = t;
+    }
+  }
+}
+
+// how a simulated agent picks its moves. a policy holds nothing about any one agent:
+// whatever an agent remembers lives in the arrays of its AgentSim, so one policy drives
+// any number of agents at once, from any number of threads
+interface AgentPolicy {
+  // the direction (0 right, 1 down, 2 left, 3 up) agent a leaves its cell by. the cell
+  // always has at least one passage
+  int choose(AgentSim sim, int a);
+
+  // does this policy mark the passages its agents walk down?
+  boolean marks();
+
+  // the name used in reports
+  String name();
+}
+
+// keeps a hand on one wall: with the right hand, turn right if it can, otherwise go
+// straight, turn left or go back, in that order, and the mirror of that with the left. it
+// remembers nothing but the way it is heading, and finds the target of any perfect maze,
+// but can walk a loop of a braided one forever
+class WallFollower implements AgentPolicy {
+  // the turns tried, as quarter turns clockwise from the way the agent is heading
+  static final int[] RIGHT_HAND = {1, 0, 3, 2};
+  static final int[] LEFT_HAND = {3, 0, 1, 2};
+
+  final boolean leftHand;
+
+  WallFollower() {
+    this(false);
+  }
+
+  WallFollower(boolean leftHand) {
+    this.leftHand = leftHand;
+  }
+
+  public int choose(AgentSim sim, int a) {
+    int open = sim.grid.passages(sim.cell[a]);
+    for (int turn : this.leftHand ? WallFollower.LEFT_HAND : WallFollower.RIGHT_HAND) {
+      int d = (sim.heading[a] + turn) & 3;
+      if ((open >>> d & 1) != 0) {
+        return d;
+      }
+    }
+    return -1;
+  }
+
+  public boolean marks() {
+    return false;
+  }
+
+  public String name() {
+    return this.leftHand ? "left hand" : "right hand";
+  }
+}
+
+// the Pledge algorithm: head one way for as long as it can, and when a wall is in the way
+// follow it with the right hand, adding up the quarter turns made, until they come back to
+// zero and it is heading the chosen way again. the count is what lets it leave an island
+// of walls that would keep a plain wall follower circling. like the wall follower it
+// remembers one number, but it is only sure to reach a target on the outside wall
+class Pledge implements AgentPolicy {
+  // the quarter turns each right hand choice adds. going back is two turns to the left,
+  // round the end of the wall
+  static final int[] TURNED = {1, 0, -1, -2};
+
+  final int main;
+
+  Pledge(int main) {
+    this.main = main;
+  }
+
+  public int choose(AgentSim sim, int a) {
+    int open = sim.grid.passages(sim.cell[a]);
+    if (sim.turns[a] == 0) {
+      if ((open >>> this.main & 1) != 0) {
+        return this.main;
+      }
+      // blocked: turn left so the wall ahead is on the right hand
+      sim.turns[a] = -1;
+    }
+    int heading = (this.main + sim.turns[a]) & 3;
+    for (int k = 0; k < 4; k++) {
+      int d = (heading + WallFollower.RIGHT_HAND[k]) & 3;
+      if ((open >>> d & 1) != 0) {
+        sim.turns[a] += Pledge.TURNED[k];
+        return d;
+      }
+    }
+    return -1;
+  }
+
+  public boolean marks() {
+    return false;
+  }
+
+  public String name() {
+    return "Pledge";
+  }
+}
+
+// takes any passage out of its cell with equal chance, from the agent's own random stream
+class RandomWalk implements AgentPolicy {
+  public int choose(AgentSim sim, int a) {
+    int open = sim.grid.passages(sim.cell[a]);
+    for (int k = sim.nextInt(a, Integer.bitCount(open)); k > 0; k--) {
+      open &= open - 1;
+    }
+    return Integer.numberOfTrailingZeros(open);
+  }
+
+  public boolean marks() {
+    return false;
+  }
+
+  public String name() {
+    return "random walk";
+  }
+}
+
+// Tremaux's rule: every passage is marked each time it is walked down. arriving at a cell
+// seen before down a passage walked only once, turn back; otherwise take the least marked
+// passage, which is never one marked twice while another is open. it finds the target of
+// any maze, loops and all
+class Tremaux implements AgentPolicy {
+  public int choose(AgentSim sim, int a) {
+    int cell = sim.cell[a];
+    int open = sim.grid.passages(cell);
+    int back = sim.moves[a] == 0 ? -1 : (sim.heading[a] + 2) & 3;
+    if (back >= 0 && sim.mark(a, cell, back) == 1) {
+      for (int d = 0; d < 4; d++) {
+        if (d != back && (open >>> d & 1) != 0 && sim.mark(a, cell, d) > 0) {
+          return back;
+        }
+      }
+    }
+    int best = -1;
+    int fewest = Integer.MAX_VALUE;
+    for (int d = 0; d < 4; d++) {
+      if ((open >>> d & 1) != 0 && d != back && sim.mark(a, cell, d) < fewest) {
+        best = d;
+        fewest = sim.mark(a, cell, d);
+      }
+    }
+    if (back >= 0 && sim.mark(a, cell, back) < fewest) {
+      best = back;
+    }
+    return best;
+  }
+
+  public boolean marks() {
+    return true;
+  }
+
+  public String name() {
+    return "Tremaux";
+  }
+}
+
+// many agents exploring one maze at once. the maze is a MazeGrid that nobody changes, and
+// everything about the agents is kept a field per array with an entry per agent, so a step
+// touches a few small arrays and no objects. agents never meet, so the threads of a run
+// each take a range of agents and play every round for them in turn, with nothing shared
+// but the grid and nothing to wait for until the end
+class AgentSim {
+  final MazeGrid grid;
+  final int target;
+  final AgentPolicy[] kinds;
+  // which of kinds each agent follows
+  final byte[] kind;
+  final int[] cell;
+  // the direction each agent last moved in, or is facing before it has moved
+  final byte[] heading;
+  final int[] moves;
+  // the quarter turns each Pledge agent has made since it left the way it heads
+  final int[] turns;
+  final boolean[] arrived;
+  final long[] rng;
+  // the Tremaux marks, two bits a passage, for the right and down passages of every cell.
+  // each marking agent has its own run of whole words starting at its slot, so no two
+  // threads ever write the same word. agents that do not mark have -1 and take no room
+  final int[] slot;
+  final long[] marks;
+  final int slotWords;
+  long totalMoves;
+  long nanos;
+
+  // the given number of agents, all on the start cell facing right, following the given
+  // policies in turn, with random streams drawn from the seed
+  AgentSim(MazeGrid grid, int start, int target, int agents, long seed,
+           AgentPolicy... kinds) {
+    if (kinds.length == 0 || kinds.length > Byte.MAX_VALUE) {
+      throw new IllegalArgumentException("An agent simulation needs 1 to 127 policies");
+    }
+    this.grid = grid;
+    this.target = target;
+    this.kinds = kinds;
+    this.kind = new byte[agents];
+    this.cell = new int[agents];
+    this.heading = new byte[agents];
+    this.moves = new int[agents];
+    this.turns = new int[agents];
+    this.arrived = new boolean[agents];
+    this.rng = new long[agents];
+    this.slot = new int[agents];
+    this.slotWords = (grid.size() * 4 + 63) / 64;
+
+    int marking = 0;
+    for (int a = 0; a < agents; a++) {
+      this.kind[a] = (byte) (a % kinds.length);
+      this.cell[a] = start;
+      this.arrived[a] = start == target;
+      this.rng[a] = ChunkedMaze.scramble(seed + a);
+      this.slot[a] = kinds[this.kind[a]].marks() ? marking++ * this.slotWords : -1;
+    }
+    if ((long) marking * this.slotWords > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("Too many marking agents for a maze this big");
+    }
+    this.marks = new long[marking * this.slotWords];
+    this.totalMoves = 0;
+    this.nanos = 0;
+  }
+
+  // the number of agents
+  int size() {
+    return this.cell.length;
+  }
+
+  // the bytes held for the agents: 27 for each one, plus the words of Tremaux marks
+  long stateBytes() {
+    return this.size() * 27L + this.marks.length * 8L;
+  }
+
+  // the moves the given policy takes to get from start to target on its own, or -1 if it
+  // has not got there within the limit. this keeps a single agent's state and the marks
+  // of a policy that marks, and no per cell worklist or parents like search
+  static long walk(MazeGrid grid, int start, int target, AgentPolicy policy, int limit) {
+    AgentSim one = new AgentSim(grid, start, target, 1, 0L, policy);
+    one.advance(0, 1, limit);
+    return one.arrived[0] ? one.moves[0] : -1;
+  }
+
+  // a number from 0 up to but not including bound from agent a's random stream
+  int nextInt(int a, int bound) {
+    return MazeRandom.below(this.rng, a, bound);
+  }
+
+  // the bit where agent a's mark of the passage out of cell i in direction d starts.
+  // passages left and up belong to the cell on the other side
+  long markBit(int a, int i, int d) {
+    int owner = d == 2 ? i - 1 : d == 3 ? i - this.grid.width : i;
+    return (long) this.slot[a] * 64 + owner * 4 + (d & 1) * 2;
+  }
+
+  // how many times agent a has walked the passage out of cell i in direction d
+  int mark(int a, int i, int d) {
+    long bit = this.markBit(a, i, d);
+    return (int) (this.marks[(int) (bit >>> 6)] >>> (bit & 63) & 3);
+  }
+
+  // EFFECT: count another walk down the passage out of cell i in direction d by agent a,
+  // holding at two
+  void addMark(int a, int i, int d) {
+    long bit = this.markBit(a, i, d);
+    if ((this.marks[(int) (bit >>> 6)] >>> (bit & 63) & 3) < 2) {
+      this.marks[(int) (bit >>> 6)] += 1L << (bit & 63);
+    }
+  }
+
+  // EFFECT: play the given number of rounds on the common pool. returns the moves made
+  long run(int rounds) {
+    return this.run(rounds, ForkJoinPool.commonPool());
+  }
+
+  // EFFECT: play the given number of rounds, every agent that has not arrived moving once
+  // a round, splitting the agents between the threads of the given pool. returns the
+  // moves made
+  long run(int rounds, ForkJoinPool pool) {
+    long began = System.nanoTime();
+    int chunks = Math.max(1, Math.min(this.size(), 4 * pool.getParallelism()));
+    int per = (this.size() + chunks - 1) / chunks;
+    ArrayList<ForkJoinTask<Long>> tasks = new ArrayList<ForkJoinTask<Long>>();
+    for (int from = 0; from < this.size(); from += per) {
+      int lo = from;
+      int hi = Math.min(this.size(), from + per);
+      tasks.add(pool.submit(() -> this.advance(lo, hi, rounds)));
+    }
+    long moved = 0;
+    for (ForkJoinTask<Long> task : tasks) {
+      moved += task.join();
+    }
+    this.totalMoves += moved;
+    this.nanos += System.nanoTime() - began;
+    return moved;
+  }
+
+  // EFFECT: play the given number of rounds for agents from up to but not including to.
+  // returns the moves made
+  long advance(int from, int to, int rounds) {
+    long moved = 0;
+    for (int a = from; a < to; a++) {
+      AgentPolicy policy = this.kinds[this.kind[a]];
+      for (int r = 0; r < rounds && !this.arrived[a]; r++) {
+        int here = this.cell[a];
+        if (this.grid.passages(here) == 0) {
+          break;
+        }
+        int d = policy.choose(this, a);
+        if (this.slot[a] >= 0) {
+          this.addMark(a, here, d);
+        }
+        this.cell[a] = this.grid.neighbor(here, d);
+        this.heading[a] = (byte) d;
+        this.moves[a] += 1;
+        this.arrived[a] = this.cell[a] == this.target;
+        moved += 1;
+      }
+    }
+    return moved;
+  }
+
+  // the number of agents on the target
+  int arrivals() {
+    int n = 0;
+    for (boolean done : this.arrived) {
+      n += done ? 1 : 0;
+    }
+    return n;
+  }
+
+  // the moves made a second over every run so far
+  double movesPerSecond() {
+    return this.nanos == 0 ? 0 : this.totalMoves * 1e9 / this.nanos;
+  }
+
+  // a line on how the agents have got on
+  String report() {
+    return String.format("%d agents, %d arrived, %d moves, %.0f moves a second",
+        this.size(), this.arrivals(), this.totalMoves, this.movesPerSecond());
+  }
+}
+
+// times BFS and DFS against the walking solvers on one generated maze, and counts the
+// working memory each needs. run as: java SolverBench width height seed
+class SolverBench {
+  public static void main(String[] args) {
+    int width = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int height = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    long seed = args.length > 2 ? Long.parseLong(args[2]) : 1L;
+    MazeGrid grid = MazeCache.generate(new MazeKey(width, height, seed, MazeKey.KRUSKAL));
+    int target = grid.size() - 1;
+    System.out.println(String.format("%dx%d maze, %d cells", width, height, grid.size()));
+    for (String algorithm : new String[] {Solution.BFS, Solution.DFS}) {
+      long best = Long.MAX_VALUE;
+      Solution solved = null;
+      for (int run = 0; run < 5; run++) {
+        long began = System.nanoTime();
+        solved = grid.search(algorithm, 0, target);
+        best = Math.min(best, System.nanoTime() - began);
+      }
+      System.out.println(SolverBench.row(algorithm, best, solved.visitedCount(),
+          SolverBench.bytes(solved)));
+    }
+    AgentPolicy[] walkers = {new WallFollower(), new WallFollower(true), new Pledge(0),
+        new Tremaux()};
+    for (AgentPolicy policy : walkers) {
+      long best = Long.MAX_VALUE;
+      AgentSim one = null;
+      for (int run = 0; run < 5; run++) {
+        long began = System.nanoTime();
+        one = new AgentSim(grid, 0, target, 1, 0L, policy);
+        one.advance(0, 1, Integer.MAX_VALUE);
+        best = Math.min(best, System.nanoTime() - began);
+      }
+      System.out.println(SolverBench.row(policy.name(), best, one.moves[0],
+          one.stateBytes()));
+    }
+  }
+
+  // the arrays a search leaves behind or works in: its answer and this thread's scratch
+  static long bytes(Solution solved) {
+    SearchScratch scratch = SearchScratch.LOCAL.get();
+    return 4L * (solved.visitedCount() + solved.pathLength() + solved.cameFrom().length
+        + scratch.order.length + scratch.worklist.length) + 8L * scratch.seen.length;
+  }
+
+  // one line of the table
+  static String row(String name, long nanos, long steps, long bytes) {
+    return String.format("%-12s %9.2f ms %12d steps %14d bytes", name, nanos / 1e6, steps,
+        bytes);
+  }
+}
+
+// a scene that counts the images placed on it, for checking how much drawing costs
+class CountingScene extends WorldScene {
+  int placed;
+
+  CountingScene(int width, int height) {
+    super(width, height);
+    this.placed = 0;
+  }
+
+  @Override
+  public void placeImageXY(WorldImage image, int x, int y) {
+    this.placed += 1;
+    super.placeImageXY(image, x, y);
+  }
+}
+
 //examples mazes and tests for all methods
 class ExamplesMaze {
   Maze maze1;
@@ -710,15 +4925,16 @@ class ExamplesMaze {
     this.uf = new UnionFind(hm);
   }
 
-  // showing the maze
-  void testBigBang(Tester t, int numWidth, int numHeight) {
+  // showing the maze, generated up front or as it is explored
+  void testBigBang(Tester t, int numWidth, int numHeight, boolean lazy) {
     this.initData();
     int width = 900;
     int height = 600;
-    // make it run as fast as possible, change for grading if needed
-    double tickRate = 0.0000000001;
-    Maze m = new Maze(numWidth, numHeight);
-    m.bigBang(width, height, tickRate);
+    // tick at the frame rate, and let the clock decide how much animation fits in a frame
+    Maze m = lazy ? new Maze(new LazyMaze(numWidth, numHeight, new Random().nextLong()))
+        : new Maze(numWidth, numHeight);
+    m.clock = new FrameClock(60);
+    m.bigBang(width, height, m.clock.tickRate());
   }
 
   // TESTS FOR THE MAZE CLASS
@@ -816,6 +5032,38 @@ class ExamplesMaze {
             this.maze11.cells.get(8), this.maze11.cells.get(9))));
   }
 
+  // testing reaching the target by hand, and the parents it follows back
+  void testManualAnswer(Tester t) {
+    this.initData();
+    t.checkExpect(this.maze10.grid().parents(0),
+        new int[] {0, 2, 5, 0, 3, 4, 7, 4, 5});
+    t.checkExpect(this.maze10.grid().parents(8)[0], 3);
+
+    this.maze10.onKeyEvent("m");
+    t.checkExpect(this.maze10.toStart, this.maze10.grid().parents(0));
+    this.maze10.onKeyEvent("down");
+    this.maze10.onKeyEvent("up");
+    this.maze10.onKeyEvent("down");
+    t.checkExpect(this.maze10.alreadySeen,
+        new ArrayList<Cell>(Arrays.asList(this.maze10.cells.get(3),
+            this.maze10.cells.get(0))));
+    t.checkExpect(this.maze10.seen.cardinality(), 2);
+    this.maze10.onKeyEvent("right");
+    this.maze10.onKeyEvent("right");
+    t.checkExpect(this.maze10.correctPath, new ArrayList<Cell>());
+    this.maze10.onKeyEvent("down");
+    t.checkExpect(this.maze10.currentIndex, 8);
+    t.checkExpect(this.maze10.correctPath,
+        new ArrayList<Cell>(Arrays.asList(this.maze10.cells.get(8),
+            this.maze10.cells.get(5), this.maze10.cells.get(4), this.maze10.cells.get(3),
+            this.maze10.cells.get(0))));
+    t.checkExpect(this.maze10.path, new ArrayList<Cell>());
+
+    this.maze10.clearDrawing();
+    t.checkExpect(this.maze10.seen.isEmpty(), true);
+    t.checkExpect(this.maze10.toStart, null);
+  }
+
   // Testing the search method
   void testSearch(Tester t) {
     this.initData();
@@ -1406,6 +5654,226 @@ class ExamplesMaze {
     t.checkExpect(this.maze12.makeScene(), s12Expected);
   }
 
+  // testing the camera
+  void testCamera(Tester t) {
+    this.initData();
+    Maze m = new Maze(100, 60, new Random(1));
+    t.checkExpect(m.cellSize, 8);
+    t.checkExpect(m.visibleColumns(), 113);
+    t.checkExpect(m.visibleRows(), 75);
+
+    m.onKeyEvent("=");
+    t.checkExpect(m.cellSize, 16);
+    t.checkExpect(m.viewX, 28);
+    t.checkExpect(m.viewY, 18);
+    t.checkExpect(m.visible(28, 18), true);
+    t.checkExpect(m.visible(27, 18), false);
+    t.checkExpect(m.visible(84, 55), true);
+    t.checkExpect(m.visible(85, 55), false);
+
+    m.onKeyEvent("6");
+    t.checkExpect(m.viewX, 42);
+    m.onKeyEvent("6");
+    t.checkExpect(m.viewX, 43);
+    m.onKeyEvent("8");
+    t.checkExpect(m.viewY, 9);
+
+    m.onKeyEvent("-");
+    t.checkExpect(m.cellSize, 8);
+    t.checkExpect(m.viewX, 0);
+    t.checkExpect(m.viewY, 0);
+    // the whole maze is already in view
+    m.onKeyEvent("-");
+    t.checkExpect(m.cellSize, 8);
+    t.checkExpect(m.lod, 1);
+
+    m.onKeyEvent("=");
+    m.onKeyEvent("=");
+    m.onKeyEvent("=");
+    t.checkExpect(m.cellSize, 64);
+    m.onKeyEvent("=");
+    t.checkExpect(m.cellSize, 64);
+    m.onKeyEvent("0");
+    t.checkExpect(m.cellSize, 8);
+    t.checkExpect(m.viewX, 0);
+
+    // small mazes never zoom past the largest cells
+    this.maze10.zoomIn();
+    t.checkExpect(this.maze10.cellSize, 200);
+  }
+
+  // testing the zoomed out blocks
+  void testLevelOfDetail(Tester t) {
+    this.initData();
+    t.checkExpect(this.maze10.pyramid(0), new int[] {1, 1, 2, 2, 3, 3, 1, 2, 1});
+    t.checkExpect(this.maze10.pyramid(1), new int[] {7, 5, 3, 1});
+    t.checkExpect(this.maze10.pyramid(2), new int[] {16});
+
+    // too big to give each cell two pixels, so it starts out in blocks
+    Maze big = new Maze(500, 300, new Random(1));
+    t.checkExpect(big.cellSize, 4);
+    t.checkExpect(big.lod, 4);
+    t.checkExpect(big.makeScene() != null, true);
+    big.zoomIn();
+    t.checkExpect(big.lod, 2);
+    big.zoomIn();
+    t.checkExpect(big.lod, 1);
+    big.zoomOut();
+    t.checkExpect(big.lod, 2);
+    big.zoomOut();
+    big.zoomOut();
+    t.checkExpect(big.lod, 4);
+
+    WorldScene blank = new WorldScene(900, 600);
+    WorldScene block = new WorldScene(900, 600);
+    block.placeImageXY(new RectangleImage(4, 4, "solid", Color.RED), 6, 2);
+    t.checkExpect(big.drawBlock(blank, 1, 0, Color.RED), block);
+    t.checkExpect(big.drawBlock(new WorldScene(900, 600), 1000, 0, Color.RED),
+        new WorldScene(900, 600));
+  }
+
+  // testing that drawing cells with an offset only moves them
+  void testDrawCellOffset(Tester t) {
+    this.initData();
+    Cell c = this.maze10.cells.get(4);
+    t.checkExpect(c.drawCell(new WorldScene(900, 600), 200, 0, 0),
+        c.drawCell(new WorldScene(900, 600), 200));
+    WorldScene moved = new WorldScene(900, 600);
+    moved.placeImageXY(new LineImage(new Posn(0, 200), Color.BLACK), 200 - 200, 300 - 200);
+    moved.placeImageXY(new LineImage(new Posn(200, 0), Color.BLACK), 300 - 200, 200 - 200);
+    t.checkExpect(this.maze10.cells.get(4).drawCell(new WorldScene(900, 600), 200, -200, -200),
+        moved);
+  }
+
+  // testing the drawWalls method
+  void testDrawWalls(Tester t) {
+    this.initData();
+    WorldScene expected = new WorldScene(900, 600);
+    expected.placeImageXY(new LineImage(new Posn(600, 0), Color.BLACK), 300, 0);
+    expected.placeImageXY(new LineImage(new Posn(200, 0), Color.BLACK), 300, 200);
+    expected.placeImageXY(new LineImage(new Posn(200, 0), Color.BLACK), 100, 400);
+    expected.placeImageXY(new LineImage(new Posn(600, 0), Color.BLACK), 300, 600);
+    expected.placeImageXY(new LineImage(new Posn(0, 600), Color.BLACK), 0, 300);
+    expected.placeImageXY(new LineImage(new Posn(0, 200), Color.BLACK), 200, 100);
+    expected.placeImageXY(new LineImage(new Posn(0, 200), Color.BLACK), 400, 500);
+    expected.placeImageXY(new LineImage(new Posn(0, 600), Color.BLACK), 600, 300);
+    t.checkExpect(this.maze10.drawWalls(new WorldScene(900, 600), 0, 0, 3, 3), expected);
+
+    t.checkExpect(this.maze10.wallAbove(1, 1), true);
+    t.checkExpect(this.maze10.wallAbove(0, 1), false);
+    t.checkExpect(this.maze10.wallAbove(2, 3), true);
+    t.checkExpect(this.maze10.wallLeft(1, 0), true);
+    t.checkExpect(this.maze10.wallLeft(1, 1), false);
+    t.checkExpect(this.maze10.wallLeft(3, 2), true);
+
+    // all the walls go in one image: 20 lines down to 1 here, and 12002 on a bigger maze
+    CountingScene perCell = new CountingScene(900, 600);
+    for (Cell c : this.maze10.cells) {
+      c.drawCell(perCell, this.maze10.cellSize);
+    }
+    CountingScene merged = new CountingScene(900, 600);
+    this.maze10.drawWalls(merged, 0, 0, 3, 3);
+    t.checkExpect(perCell.placed, 20);
+    t.checkExpect(merged.placed, 1);
+
+    Maze big = new Maze(100, 60, new Random(1));
+    CountingScene bigPerCell = new CountingScene(900, 600);
+    for (Cell c : big.cells) {
+      c.drawCell(bigPerCell, big.cellSize);
+    }
+    CountingScene bigMerged = new CountingScene(900, 600);
+    big.drawWalls(bigMerged, 0, 0, 100, 60);
+    t.checkExpect(bigPerCell.placed, 12002);
+    t.checkExpect(bigMerged.placed, 1);
+
+    // the layer is only painted again once the walls or the view change
+    MazeRaster layer = big.wallLayer;
+    int[] key = big.wallLayerKey;
+    big.drawWalls(new WorldScene(900, 600), 0, 0, 100, 60);
+    t.checkExpect(big.wallLayerKey == key, true);
+    big.drawWalls(new WorldScene(900, 600), 1, 0, 100, 60);
+    t.checkExpect(big.wallLayerKey == key, false);
+    t.checkExpect(big.wallLayer == layer, true);
+    t.checkExpect(this.maze10.wallLayer.get(200, 300), 0);
+    this.maze10.cells.get(3).right.removeEdge();
+    this.maze10.drawWalls(new WorldScene(900, 600), 0, 0, 3, 3);
+    t.checkExpect(this.maze10.wallLayer.get(200, 300), Color.BLACK.getRGB());
+    t.checkExpect(this.maze10.wallLayer.get(100, 100), 0);
+
+    // masked out cells only get walls where they meet active ones
+    Maze ring = new Maze(CellMask.fromRows("###", "# #", "###"), new Random(1));
+    t.checkExpect(ring.wallAbove(1, 2), true);
+    t.checkExpect(ring.wallAbove(1, 1), true);
+    t.checkExpect(ring.wallLeft(2, 1), true);
+  }
+
+  // testing the MazeRaster class
+  void testMazeRaster(Tester t) {
+    MazeRaster r = new MazeRaster(4, 3);
+    t.checkExpect(r.get(0, 0), 0);
+    r.fill(-2, -2, 4, 4, 0xFFFF0000);
+    t.checkExpect(r.get(0, 0), 0xFFFF0000);
+    t.checkExpect(r.get(1, 1), 0xFFFF0000);
+    t.checkExpect(r.get(2, 1), 0);
+    t.checkExpect(r.get(0, 2), 0);
+    r.fill(3, 2, 10, 10, 0xFF00FF00);
+    t.checkExpect(r.get(3, 2), 0xFF00FF00);
+    // the image javalib draws catches up with the pixels when it is asked for
+    ComputedPixelImage image = (ComputedPixelImage) r.image();
+    t.checkExpect(image.getPixel(3, 2), Color.GREEN);
+    t.checkExpect(image.getPixel(1, 1), Color.RED);
+    t.checkExpect(image.getPixel(2, 1).getAlpha(), 0);
+    t.checkExpect(r.shown[11], 0xFF00FF00);
+
+    // and later frames only rewrite what changed, including back to transparent
+    r.fill(0, 0, 4, 3, 0);
+    r.fill(1, 1, 1, 1, 0xFF0000FF);
+    r.image();
+    t.checkExpect(image.getPixel(0, 0).getAlpha(), 0);
+    t.checkExpect(image.getPixel(3, 2).getAlpha(), 0);
+    t.checkExpect(image.getPixel(1, 1), Color.BLUE);
+  }
+
+  // testing the drawRaster method
+  void testDrawRaster(Tester t) {
+    this.initData();
+    this.maze10.onKeyEvent("g");
+    t.checkExpect(this.maze10.rasterMode, true);
+    WorldScene expected = new WorldScene(900, 600);
+    WorldScene scene = this.maze10.makeScene();
+    expected.placeImageXY(this.maze10.raster.image(), 450, 300);
+    t.checkExpect(scene, expected);
+
+    MazeRaster r = this.maze10.raster;
+    int gray = new Color(192, 192, 192).getRGB();
+    int black = Color.BLACK.getRGB();
+    t.checkExpect(r.get(300, 300), gray);
+    t.checkExpect(r.get(100, 100), Maze.START_COLOR.getRGB());
+    t.checkExpect(r.get(500, 500), Maze.TARGET_COLOR.getRGB());
+    t.checkExpect(r.get(700, 300), Color.WHITE.getRGB());
+    // the walls: the border, 1 to 4 and 0 to 1, but not the passages 0 to 3 and 3 to 4
+    t.checkExpect(r.get(0, 0), black);
+    t.checkExpect(r.get(600, 300), black);
+    t.checkExpect(r.get(300, 200), black);
+    t.checkExpect(r.get(200, 50), black);
+    t.checkExpect(r.get(100, 200), gray);
+    t.checkExpect(r.get(200, 300), gray);
+
+    this.maze10.search(false);
+    for (int i = 0; i < 20; i++) {
+      this.maze10.onTick();
+    }
+    this.maze10.makeScene();
+    t.checkExpect(r.get(300, 300), Maze.PATH_COLOR.getRGB());
+
+    // zoomed out far enough, cells become blocks
+    Maze big = new Maze(500, 300, new Random(1));
+    big.onKeyEvent("g");
+    big.makeScene();
+    t.checkExpect(big.raster.get(1, 1), Maze.START_COLOR.getRGB());
+    t.checkExpect(big.raster.get(890, 1), Color.WHITE.getRGB());
+  }
+
   // testing the drawBorderAndBackground method
   void testDrawBorderAndBackground(Tester t) {
     this.initData();
@@ -2197,4 +6665,1482 @@ class ExamplesMaze {
     t.checkExpect(this.uf.representatives.get(this.cell55), this.cell66);
     t.checkExpect(this.uf.representatives.get(this.cell66), this.cell66);
   }
+
+  // TESTS FOR THE MAZE CACHE
+
+  // testing the MazeGrid snapshot
+  void testMazeGrid(Tester t) {
+    this.initData();
+    MazeGrid g10 = MazeGrid.of(this.maze10);
+
+    t.checkExpect(g10.size(), 9);
+    t.checkExpect(g10.rowWords, 1);
+    for (int i = 0; i < 9; i++) {
+      t.checkExpect(g10.openRight(i), this.maze10.cells.get(i).right != null);
+      t.checkExpect(g10.openDown(i), this.maze10.cells.get(i).bottom != null);
+      t.checkExpect(g10.openLeft(i), this.maze10.cells.get(i).left != null);
+      t.checkExpect(g10.openUp(i), this.maze10.cells.get(i).top != null);
+    }
+
+    // rows wider than one word start on their own long
+    MazeGrid wide = MazeGrid.of(new Maze(70, 2, new Random(3)));
+    t.checkExpect(wide.rowWords, 2);
+    t.checkExpect(MazeGrid.word(69, 70, 2), 1);
+    t.checkExpect(MazeGrid.word(70, 70, 2), 2);
+  }
+
+  // testing the restoring constructor
+  void testRestore(Tester t) {
+    this.initData();
+    Maze restored = new Maze(MazeGrid.of(this.maze11));
+
+    t.checkExpect(restored.cells, this.maze11.cells);
+    t.checkExpect(restored.edges.size(), 15);
+    t.checkExpect(restored.cellSize, this.maze11.cellSize);
+  }
+
+  // testing the MazeCache class
+  void testMazeCache(Tester t) {
+    MazeCache cache = new MazeCache(30);
+    Maze first = cache.get(4, 4, 0, MazeKey.KRUSKAL);
+
+    t.checkExpect(first.cells, new Maze(4, 4, new Random(0)).cells);
+    t.checkExpect(cache.misses, 1L);
+    t.checkExpect(cache.hits, 0L);
+    t.checkExpect(cache.weight, 16L);
+
+    Maze second = cache.get(4, 4, 0, MazeKey.KRUSKAL);
+    t.checkExpect(second.cells, first.cells);
+    t.checkExpect(cache.hits, 1L);
+    t.checkExpect(cache.hitRate(), 0.5);
+
+    // a second 16 cell maze pushes the total over 30, so the least recently used goes
+    cache.get(4, 4, 1, MazeKey.KRUSKAL);
+    t.checkExpect(cache.evictions, 1L);
+    t.checkExpect(cache.weight, 16L);
+    t.checkExpect(cache.entries.containsKey(new MazeKey(4, 4, 0, MazeKey.KRUSKAL)), false);
+    t.checkExpect(cache.entries.containsKey(new MazeKey(4, 4, 1, MazeKey.KRUSKAL)), true);
+
+    // mazes heavier than the whole cache are generated but never stored
+    cache.get(8, 8, 0, MazeKey.KRUSKAL);
+    t.checkExpect(cache.weight, 16L);
+
+    t.checkException(new IllegalArgumentException("Unknown maze algorithm: prim"),
+        cache, "get", 4, 4, 0L, "prim");
+  }
+
+  // testing the MazeKey class
+  void testMazeKey(Tester t) {
+    t.checkExpect(new MazeKey(3, 4, 5, MazeKey.KRUSKAL).equals(
+        new MazeKey(3, 4, 5, MazeKey.KRUSKAL)), true);
+    t.checkExpect(new MazeKey(3, 4, 5, MazeKey.KRUSKAL).equals(
+        new MazeKey(4, 3, 5, MazeKey.KRUSKAL)), false);
+    t.checkExpect(new MazeKey(3, 4, 5, MazeKey.KRUSKAL).hashCode(),
+        new MazeKey(3, 4, 5, MazeKey.KRUSKAL).hashCode());
+  }
+
+  // TESTS FOR THE SOLUTION CACHE
+
+  // testing the solve method
+  void testSolve(Tester t) {
+    this.initData();
+    Solution dfs = this.maze10.solve(Solution.DFS, 0, 8);
+
+    t.checkExpect(dfs.visited(), new int[] {0, 3, 4, 7, 6, 5, 2, 1, 8});
+    t.checkExpect(dfs.path(), new int[] {8, 5, 4, 3, 0});
+    t.checkExpect(dfs.found(), true);
+
+    // the same solve is served from the cache, a different one is not
+    t.checkExpect(this.maze10.solve(Solution.DFS, 0, 8) == dfs, true);
+    t.checkExpect(this.maze10.solve(Solution.BFS, 0, 8) == dfs, false);
+    t.checkExpect(this.maze10.solve(Solution.DFS, 8, 0).path(), new int[] {0, 3, 4, 5, 8});
+
+    // changing the walls drops every cached solution
+    this.maze10.onKeyEvent("r");
+    t.checkExpect(this.maze10.solve(Solution.DFS, 0, 8) == dfs, false);
+
+    t.checkException(new IllegalArgumentException("Unknown solver: astar"),
+        this.maze10, "solve", "astar", 0, 8);
+  }
+
+  // testing that search reuses the cached solution
+  void testSearchCached(Tester t) {
+    this.initData();
+    HashMap<Cell, Cell> first = this.maze11.search(false);
+    ArrayList<Cell> firstPath = new ArrayList<Cell>(this.maze11.path);
+    this.maze11.correctPath = new ArrayList<Cell>();
+
+    t.checkExpect(this.maze11.search(false), first);
+    t.checkExpect(this.maze11.path, firstPath);
+    t.checkExpect(this.maze11.correctPath.get(0), this.maze11.cells.get(15));
+    t.checkExpect(this.maze11.grid().solutions.size(), 1);
+
+    // a wall put back through an edge directly is seen by the next search too
+    Maze m = new Maze(3, 3, new Random(2));
+    m.search(false);
+    t.checkExpect(m.correctPath.get(1), m.cells.get(7));
+    m.cells.get(7).right.removeEdge();
+    m.clearDrawing();
+    m.search(false);
+    // in a perfect maze that cuts the target off
+    t.checkExpect(m.correctPath, new ArrayList<Cell>());
+    t.checkExpect(m.grid().openRight(7), false);
+  }
+
+  // testing the grid method
+  void testGrid(Tester t) {
+    this.initData();
+    MazeGrid g = this.maze12.grid();
+
+    t.checkExpect(this.maze12.grid() == g, true);
+    t.checkExpect(g.openRight(0), this.maze12.cells.get(0).right != null);
+    this.maze12.createMaze();
+    t.checkExpect(this.maze12.grid() == g, false);
+  }
+
+  // testing the pathTo method
+  void testPathTo(Tester t) {
+    t.checkExpect(Solution.pathTo(new int[] {-1, 0, 1, 1}, 0, 3), new int[] {3, 1, 0});
+    t.checkExpect(Solution.pathTo(new int[] {-1, 0, 1, 1}, 0, 0), new int[] {0});
+  }
+
+  // TESTS FOR SHARED SNAPSHOTS
+
+  // testing the MazeGrid solve method
+  void testGridSolve(Tester t) {
+    MazeGrid g = MazeGrid.generate(3, 3, new Random(0));
+    Solution s = g.solve(Solution.DFS, 0, 8);
+
+    t.checkExpect(s.path(), new int[] {8, 5, 4, 3, 0});
+    // what callers get to keep are copies, so none of them can change the shared answer
+    s.path()[0] = 99;
+    g.rightBits()[0] = -1L;
+    t.checkExpect(g.solve(Solution.DFS, 0, 8).pathAt(0), 8);
+    t.checkExpect(s.pathLength(), 5);
+    t.checkExpect(g.rightWord(0) == -1L, false);
+    t.checkExpect(g.solve(Solution.DFS, 0, 8) == s, true);
+    t.checkExpect(g.solutions.size(), 1);
+
+    // only the most recent solves are kept, and a used one is kept over older ones
+    for (int i = 1; i < 8; i++) {
+      g.solve(Solution.BFS, 0, i);
+    }
+    t.checkExpect(g.solutions.size(), 8);
+    t.checkExpect(g.solve(Solution.DFS, 0, 8) == s, true);
+    g.solve(Solution.BFS, 8, 0);
+    t.checkExpect(g.solutions.size(), MazeGrid.MAX_SOLUTIONS);
+    t.checkExpect(g.solutions.containsKey("bfs 0 1"), false);
+    t.checkExpect(g.solve(Solution.DFS, 0, 8) == s, true);
+  }
+
+  // testing that many threads can solve one snapshot at the same time
+  void testConcurrentSolve(Tester t) {
+    MazeGrid g = MazeGrid.generate(40, 40, new Random(7));
+    int[] expected = g.search(Solution.BFS, 0, 1599).path();
+    int[][] results = new int[8][];
+    Thread[] threads = new Thread[8];
+
+    for (int i = 0; i < threads.length; i++) {
+      int slot = i;
+      threads[i] = new Thread(() -> results[slot] = g.solve(Solution.BFS, 0, 1599).path());
+      threads[i].start();
+    }
+    for (Thread th : threads) {
+      try {
+        th.join();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    for (int[] result : results) {
+      t.checkExpect(result, expected);
+    }
+  }
+
+  // TESTS FOR BATCH GENERATION
+
+  // testing the primitive generator against the Cell based one
+  void testGenerateGrid(Tester t) {
+    GeneratorScratch scratch = new GeneratorScratch();
+    for (int seed = 0; seed < 5; seed++) {
+      MazeGrid expected = MazeGrid.of(new Maze(67, 9, new Random(seed)));
+      MazeGrid actual = MazeGrid.generate(67, 9, new Random(seed), scratch);
+      t.checkExpect(actual.rightBits(), expected.rightBits());
+      t.checkExpect(actual.downBits(), expected.downBits());
+    }
+    MazeGrid single = MazeGrid.generate(1, 1, new Random(0), scratch);
+    t.checkExpect(single.rightBits(), new long[] {0});
+    t.checkExpect(scratch.parent.length, 67 * 9);
+  }
+
+  // testing the find method of GeneratorScratch
+  void testScratchFind(Tester t) {
+    int[] parent = new int[] {0, 0, 1, 2, 4};
+    t.checkExpect(GeneratorScratch.find(parent, 3), 0);
+    t.checkExpect(parent[3], 1);
+    t.checkExpect(GeneratorScratch.find(parent, 4), 4);
+  }
+
+  // testing ordered batch generation
+  void testBatchOrdered(Tester t) {
+    BatchGenerator batch = new BatchGenerator(3);
+    ArrayList<MazeKey> specs = new ArrayList<MazeKey>();
+    for (int i = 0; i < 50; i++) {
+      specs.add(new MazeKey(5 + i % 7, 4, i, MazeKey.KRUSKAL));
+    }
+    ArrayList<Long> indices = new ArrayList<Long>();
+    ArrayList<MazeGrid> grids = new ArrayList<MazeGrid>();
+    batch.run(specs.iterator(), (index, spec, grid) -> {
+      indices.add(index);
+      grids.add(grid);
+    }, true);
+    batch.shutdown();
+
+    t.checkExpect(indices.size(), 50);
+    for (int i = 0; i < 50; i++) {
+      t.checkExpect(indices.get(i), (long) i);
+      t.checkExpect(grids.get(i).rightBits(),
+          MazeGrid.generate(5 + i % 7, 4, new Random(i)).rightBits());
+    }
+
+    // an error from the sink is reported, and the grids after it do not stay waiting
+    BatchGenerator strict = new BatchGenerator(3);
+    t.checkException(new RuntimeException("Maze generation failed",
+        new AssertionError("bad grid")),
+        strict, "run", specs.iterator(), (MazeSink) (index, spec, grid) -> {
+          if (index == 3) {
+            throw new AssertionError("bad grid");
+          }
+        }, true);
+    ArrayList<Long> after = new ArrayList<Long>();
+    strict.run(specs.iterator(), (index, spec, grid) -> after.add(index), true);
+    strict.shutdown();
+    t.checkExpect(after.size(), 50);
+  }
+
+  // testing unordered batch generation and failures
+  void testBatchUnordered(Tester t) {
+    BatchGenerator batch = new BatchGenerator(2);
+    ArrayList<MazeKey> specs = new ArrayList<MazeKey>();
+    for (int i = 0; i < 30; i++) {
+      specs.add(new MazeKey(6, 6, i, MazeKey.KRUSKAL));
+    }
+    HashMap<Long, MazeGrid> seen = new HashMap<Long, MazeGrid>();
+    batch.run(specs.iterator(), (index, spec, grid) -> seen.put(index, grid), false);
+
+    t.checkExpect(seen.size(), 30);
+    t.checkExpect(seen.get(17L).downBits(),
+        MazeGrid.generate(6, 6, new Random(17)).downBits());
+
+    specs.add(new MazeKey(6, 6, 0, "prim"));
+    t.checkException(new RuntimeException("Maze generation failed",
+        new IllegalArgumentException("Unknown maze algorithm: prim")),
+        batch, "run", specs.iterator(), (MazeSink) (index, spec, grid) -> { }, false);
+
+    // an error, not just an exception, is reported and does not leave run waiting
+    specs.set(30, new MazeKey(6, 6, 0, MazeKey.KRUSKAL) {
+      @Override
+      Random random() {
+        throw new OutOfMemoryError("Java heap space");
+      }
+    });
+    t.checkException(new RuntimeException("Maze generation failed",
+        new OutOfMemoryError("Java heap space")),
+        batch, "run", specs.iterator(), (MazeSink) (index, spec, grid) -> { }, false);
+    batch.shutdown();
+  }
+
+  // TESTS FOR REUSED BUFFERS
+
+  // testing the regenerate method
+  void testRegenerate(Tester t) {
+    this.initData();
+    ArrayList<Cell> cells = this.maze11.cells;
+    Cell first = this.maze11.cells.get(0);
+    int[] parents = this.maze11.scratch.parent;
+    Edge firstEdge = this.maze11.edges.get(0);
+    this.maze11.search(false);
+
+    this.maze11.regenerate();
+
+    // the same cells, edges and buffers are reused, and only the passages get edges
+    t.checkExpect(this.maze11.cells == cells, true);
+    t.checkExpect(this.maze11.cells.get(0) == first, true);
+    t.checkExpect(this.maze11.edges.get(0) == firstEdge, true);
+    t.checkExpect(this.maze11.scratch.parent == parents, true);
+    t.checkExpect(this.maze11.edges.size(), 15);
+    t.checkExpect(this.maze11.path, new ArrayList<Cell>());
+    t.checkExpect(this.maze11.correctPath, new ArrayList<Cell>());
+
+    // and the result is the same maze a fresh grid would give with the same random numbers
+    Random rand = new Random(0);
+    new Maze(4, 4, rand);
+    t.checkExpect(MazeGrid.of(this.maze11).rightBits(),
+        MazeGrid.generate(4, 4, rand).rightBits());
+
+    // the generated grid is kept as the snapshot instead of being rebuilt from the cells,
+    // and the next maze is generated into the same bits
+    MazeGrid kept = this.maze11.grid;
+    t.checkExpect(this.maze11.gridVersion, this.maze11.wallVersion());
+    t.checkExpect(this.maze11.grid() == kept, true);
+    t.checkExpect(kept.rightBits(), MazeGrid.of(this.maze11).rightBits());
+    t.checkExpect(kept.downBits(), MazeGrid.of(this.maze11).downBits());
+    t.checkExpect(kept.rightWeight, null);
+    long[] bits = this.maze11.scratch.bits[0];
+    this.maze11.regenerate();
+    t.checkExpect(this.maze11.scratch.bits[0] == bits, true);
+    t.checkExpect(this.maze11.grid().downBits(), MazeGrid.of(this.maze11).downBits());
+
+    // a restored maze regenerates the same way
+    Maze restored = new Maze(MazeGrid.of(this.maze12));
+    restored.regenerate();
+    t.checkExpect(restored.edges.size(), 9);
+    t.checkExpect(restored.solve(Solution.BFS, 0, 9).found(), true);
+
+    // the extra edges of a braided or weighted maze are dropped, and the rest are linked
+    // only where the new maze has passages
+    this.maze11.braid(1.0);
+    this.maze11.regenerate();
+    t.checkExpect(this.maze11.edges.size(), 15);
+    this.maze11.regenerateWeighted(0);
+    this.maze11.regenerate();
+    t.checkExpect(this.maze11.edges.size(), 15);
+    for (Edge e : this.maze11.edges) {
+      t.checkExpect(e.cell1.right == e || e.cell1.bottom == e, true);
+    }
+  }
+
+  // testing the restoreEdge method
+  void testRestoreEdge(Tester t) {
+    this.initData();
+    this.m4.createCells();
+    this.m4.connectCellsX();
+    this.m4.connectCellsY();
+    Edge across = this.m4.cells.get(0).right;
+    Edge downward = this.m4.cells.get(0).bottom;
+    across.removeEdge();
+    downward.removeEdge();
+
+    t.checkExpect(this.m4.cells.get(0).right, null);
+    t.checkExpect(this.m4.cells.get(2).top, null);
+    across.restoreEdge();
+    downward.restoreEdge();
+    t.checkExpect(this.m4.cells.get(0).right, across);
+    t.checkExpect(this.m4.cells.get(1).left, across);
+    t.checkExpect(this.m4.cells.get(0).bottom, downward);
+    t.checkExpect(this.m4.cells.get(2).top, downward);
+  }
+
+  // testing the indexOf method
+  void testIndexOf(Tester t) {
+    this.initData();
+    t.checkExpect(this.maze12.indexOf(this.maze12.cells.get(7)), 7);
+    t.checkExpect(this.maze11.indexOf(this.maze11.cells.get(15)), 15);
+  }
+
+  // testing the SearchScratch bitmap helpers
+  void testSearchScratch(Tester t) {
+    SearchScratch scratch = new SearchScratch();
+    scratch.ensure(100);
+    SearchScratch.set(scratch.seen, 70);
+
+    t.checkExpect(SearchScratch.get(scratch.seen, 70), true);
+    t.checkExpect(SearchScratch.get(scratch.seen, 6), false);
+    t.checkExpect(scratch.worklist.length, 401);
+    scratch.ensure(50);
+    t.checkExpect(SearchScratch.get(scratch.seen, 70), false);
+  }
+
+  // TESTS FOR WEIGHTED MAZES
+
+  // testing the sortByKey method
+  void testSortByKey(Tester t) {
+    GeneratorScratch scratch = new GeneratorScratch();
+    scratch.ensure(4);
+    int[] items = new int[] {0, 1, 2, 3, 4, 5};
+    scratch.keys[0] = 300;
+    scratch.keys[1] = 5;
+    scratch.keys[2] = 300;
+    scratch.keys[3] = 0;
+    scratch.keys[4] = 70000;
+    scratch.keys[5] = 5;
+    scratch.sortByKey(items, 6);
+
+    // equal keys keep their order
+    t.checkExpect(items, new int[] {3, 1, 5, 0, 2, 4});
+
+    int[] some = new int[] {2, 1, 0};
+    scratch.sortByKey(some, 2);
+    t.checkExpect(some, new int[] {1, 2, 0});
+  }
+
+  // testing the weight method
+  void testWeight(Tester t) {
+    Random rand = new Random(5);
+    for (int i = 0; i < 50; i++) {
+      int horizontal = MazeGrid.weight(rand, true, 100);
+      int vertical = MazeGrid.weight(rand, false, 100);
+      t.checkRange(horizontal, 0, MazeGrid.MAX_WEIGHT);
+      t.checkRange(vertical, 100, MazeGrid.MAX_WEIGHT + 100);
+      t.checkRange(MazeGrid.weight(rand, true, -100), 100, MazeGrid.MAX_WEIGHT + 100);
+    }
+  }
+
+  // testing the createWeightedMaze method
+  void testCreateWeightedMaze(Tester t) {
+    this.initData();
+    Maze weighted = new Maze(30, 20, false, new Random(9));
+    weighted.createCells();
+    weighted.connectCellsX();
+    weighted.connectCellsY();
+    weighted.createWeightedMaze(MazeGrid.HORIZONTAL_BIAS);
+    MazeGrid g = weighted.grid();
+    MazeGrid expected = MazeGrid.generateWeighted(30, 20, new Random(9),
+        MazeGrid.HORIZONTAL_BIAS, new GeneratorScratch());
+
+    // the Cell based and primitive versions build the same spanning tree
+    t.checkExpect(g.rightBits(), expected.rightBits());
+    t.checkExpect(g.downBits(), expected.downBits());
+    t.checkExpect(weighted.solve(Solution.BFS, 0, 599).found(), true);
+
+    // and the bias gives clearly more horizontal passages than vertical ones
+    int horizontal = 0;
+    for (int i = 0; i < 600; i++) {
+      horizontal += g.openRight(i) ? 1 : 0;
+    }
+    t.checkExpect(horizontal > 400, true);
+
+    // pressing w does the same thing in place, and r puts the weights back to zero
+    this.maze11.onKeyEvent("w");
+    t.checkExpect(this.maze11.grid().rightWeight == null, false);
+    this.maze11.onKeyEvent("r");
+    t.checkExpect(this.maze11.grid().rightWeight, null);
+  }
+
+  // testing generation of weighted grids from keys
+  void testGenerateWeighted(Tester t) {
+    MazeGrid plain = MazeGrid.generate(new MazeKey(8, 8, 1, MazeKey.WEIGHTED_KRUSKAL),
+        new GeneratorScratch());
+    MazeGrid biased = new MazeCache(1000).grid(
+        new MazeKey(8, 8, 1, MazeKey.HORIZONTAL_KRUSKAL));
+
+    t.checkExpect(plain.rightWeight.length, 64);
+    t.checkExpect(plain.solve(Solution.DFS, 0, 63).found(), true);
+    t.checkExpect(biased.solve(Solution.DFS, 0, 63).found(), true);
+    t.checkExpect(biased.downWeight[3] >= MazeGrid.HORIZONTAL_BIAS, true);
+  }
+
+  // testing the dijkstra solver
+  void testDijkstra(Tester t) {
+    this.initData();
+    // on a tree with unit costs it finds the same path as breadth first search
+    t.checkExpect(this.maze11.solve(Solution.DIJKSTRA, 0, 15).path(),
+        this.maze11.solve(Solution.BFS, 0, 15).path());
+
+    // with weights it takes the cheaper of two routes around a loop
+    MazeGrid loop = new MazeGrid(2, 2, new long[] {1L, 1L}, new long[] {3L, 0L},
+        new int[] {1, 0, 9, 0}, new int[] {20, 1, 0, 0});
+    t.checkExpect(loop.solve(Solution.DIJKSTRA, 0, 3).path(), new int[] {3, 1, 0});
+    t.checkExpect(loop.solve(Solution.DIJKSTRA, 0, 2).path(), new int[] {2, 3, 1, 0});
+    t.checkExpect(loop.solve(Solution.BFS, 0, 2).path(), new int[] {2, 0});
+  }
+
+  // testing the SearchScratch heap
+  void testHeap(Tester t) {
+    long[] heap = new long[8];
+    int size = 0;
+    size = SearchScratch.push(heap, size, 5);
+    size = SearchScratch.push(heap, size, 2);
+    size = SearchScratch.push(heap, size, 9);
+    size = SearchScratch.push(heap, size, 1);
+
+    t.checkExpect(heap[0], 1L);
+    size = SearchScratch.pop(heap, size);
+    t.checkExpect(heap[0], 2L);
+    size = SearchScratch.pop(heap, size);
+    t.checkExpect(heap[0], 5L);
+    size = SearchScratch.pop(heap, size);
+    t.checkExpect(heap[0], 9L);
+    t.checkExpect(SearchScratch.pop(heap, size), 0);
+  }
+
+  // TESTS FOR MASKED MAZES
+
+  // testing the CellMask class
+  void testCellMask(Tester t) {
+    CellMask ring = CellMask.fromRows(
+        " ### ",
+        "## ##",
+        " ### ");
+
+    t.checkExpect(ring.width, 5);
+    t.checkExpect(ring.active(0), false);
+    t.checkExpect(ring.active(1), true);
+    t.checkExpect(ring.active(7), false);
+    t.checkExpect(ring.first(), 1);
+    t.checkExpect(ring.last(), 13);
+    t.checkExpect(new CellMask(3, 3).first(), -1);
+    // a maze needs somewhere to start and end
+    t.checkConstructorException(
+        new IllegalArgumentException("A masked maze needs at least one active cell"),
+        "Maze", new CellMask(3, 3), new Random(0));
+
+    BufferedImage image = new BufferedImage(3, 2, BufferedImage.TYPE_INT_RGB);
+    image.setRGB(0, 0, 0xFFFFFF);
+    image.setRGB(2, 1, 0xE0E0E0);
+    image.setRGB(1, 1, 0x202020);
+    CellMask fromImage = CellMask.fromImage(image);
+    t.checkExpect(fromImage.active(0), false);
+    t.checkExpect(fromImage.active(1), true);
+    t.checkExpect(fromImage.active(4), true);
+    t.checkExpect(fromImage.active(5), false);
+  }
+
+  // testing listEdges with a mask
+  void testListEdgesMasked(Tester t) {
+    CellMask full = new CellMask(70, 3);
+    for (int i = 0; i < 210; i++) {
+      full.activate(i);
+    }
+    int[] masked = new int[420];
+    int[] plain = new int[420];
+    int count = MazeGrid.listEdges(70, 3, full, masked);
+
+    // a full mask lists exactly the edges of the full grid, in the same order
+    t.checkExpect(count, MazeGrid.listEdges(70, 3, plain));
+    t.checkExpect(masked, plain);
+
+    CellMask ell = CellMask.fromRows("#  ", "###");
+    int[] edges = new int[12];
+    t.checkExpect(MazeGrid.listEdges(3, 2, ell, edges), 3);
+    t.checkExpect(Arrays.copyOf(edges, 3), new int[] {3 << 1, 4 << 1, 1});
+    t.checkExpect(MazeGrid.listEdges(3, 2, ell, null), 3);
+  }
+
+  // testing mazes shaped by a mask
+  void testMaskedMaze(Tester t) {
+    CellMask plus = CellMask.fromRows(
+        "  ##  ",
+        "  ##  ",
+        "######",
+        "######",
+        "  ##  ",
+        "  ##  ");
+    Maze shaped = new Maze(plus, new Random(4));
+    MazeGrid g = shaped.grid();
+
+    t.checkExpect(shaped.start, 2);
+    t.checkExpect(shaped.target, 33);
+    t.checkExpect(shaped.currentIndex, 2);
+    t.checkExpect(shaped.edges.size(), 19);
+    // the inactive cells are never connected and everything else is one tree
+    t.checkExpect(shaped.cells.get(0).right, null);
+    t.checkExpect(shaped.cells.get(0).bottom, null);
+    t.checkExpect(shaped.solve(Solution.BFS, 2, 33).found(), true);
+    t.checkExpect(shaped.solve(Solution.BFS, 2, 0).found(), false);
+
+    // the primitive generator agrees with the Cell based one
+    MazeGrid expected = MazeGrid.generate(plus, new Random(4), new GeneratorScratch());
+    t.checkExpect(g.rightBits(), expected.rightBits());
+    t.checkExpect(g.downBits(), expected.downBits());
+    t.checkExpect(new Maze(expected).start, 2);
+
+    // search and regenerate use the mask's endpoints
+    shaped.search(false);
+    t.checkExpect(shaped.correctPath.get(0), shaped.cells.get(33));
+    shaped.onKeyEvent("r");
+    t.checkExpect(shaped.edges.size(), 19);
+    t.checkExpect(shaped.currentIndex, 2);
+    t.checkExpect(shaped.cells.get(0).right, null);
+  }
+
+  // TESTS FOR OTHER TOPOLOGIES
+
+  // check that every neighbor of every cell of the given topology leads back to it
+  void checkSymmetric(Tester t, Topology topology) {
+    boolean symmetric = true;
+    for (int i = 0; i < topology.size(); i++) {
+      for (int d = 0; d < topology.directions(); d++) {
+        int j = topology.neighbor(i, d);
+        symmetric = symmetric && (j < 0 || topology.neighbor(j, topology.opposite(d)) == i);
+      }
+    }
+    t.checkExpect(symmetric, true);
+  }
+
+  // check that a maze generated over the given topology is a spanning tree
+  void checkSpanningTree(Tester t, Topology topology) {
+    GraphMaze maze = GraphMaze.generate(topology, new Random(11), new GeneratorScratch());
+    int last = topology.size() - 1;
+    t.checkExpect(maze.passages(), topology.size() - 1);
+    t.checkExpect(maze.search(Solution.BFS, 0, -1).visitedCount(), topology.size());
+    t.checkExpect(maze.search(Solution.DFS, 0, last).found(), true);
+  }
+
+  // testing the square topology
+  void testSquareTopology(Tester t) {
+    Topology square = new SquareTopology(4, 3);
+    t.checkExpect(square.neighbor(3, 0), -1);
+    t.checkExpect(square.neighbor(3, 1), 7);
+    t.checkExpect(square.neighbor(4, 2), -1);
+    t.checkExpect(square.neighbor(5, 3), 1);
+    this.checkSymmetric(t, square);
+    this.checkSpanningTree(t, square);
+
+    // over the square topology a maze searches like the MazeGrid with the same passages
+    this.initData();
+    long[] open = new long[1];
+    for (int i = 0; i < 9; i++) {
+      if (this.maze10.cells.get(i).right != null) {
+        SearchScratch.set(open, i * 4);
+      }
+      if (this.maze10.cells.get(i).bottom != null) {
+        SearchScratch.set(open, i * 4 + 1);
+      }
+    }
+    GraphMaze same = new GraphMaze(new SquareTopology(3, 3), open);
+    t.checkExpect(same.search(Solution.DFS, 0, 8).visited(),
+        this.maze10.solve(Solution.DFS, 0, 8).visited());
+  }
+
+  // testing the hex topology
+  void testHexTopology(Tester t) {
+    Topology hex = new HexTopology(4, 4);
+    // (1, 0) is in an even row and (1, 1) in an odd one
+    t.checkExpect(hex.neighbor(1, 1), 5);
+    t.checkExpect(hex.neighbor(1, 2), 4);
+    t.checkExpect(hex.neighbor(5, 1), 10);
+    t.checkExpect(hex.neighbor(5, 5), 2);
+    t.checkExpect(hex.neighbor(5, 4), 1);
+    t.checkExpect(hex.neighbor(0, 4), -1);
+    this.checkSymmetric(t, hex);
+    this.checkSpanningTree(t, hex);
+  }
+
+  // testing the triangle topology
+  void testTriangleTopology(Tester t) {
+    Topology tri = new TriangleTopology(5, 3);
+    t.checkExpect(tri.neighbor(0, 2), 5);
+    t.checkExpect(tri.neighbor(1, 2), -1);
+    t.checkExpect(tri.neighbor(6, 2), 11);
+    t.checkExpect(tri.neighbor(7, 2), 2);
+    t.checkExpect(tri.neighbor(4, 1), -1);
+    this.checkSymmetric(t, tri);
+    this.checkSpanningTree(t, tri);
+  }
+
+  // testing the layered topology
+  void testLayeredTopology(Tester t) {
+    Topology layers = new LayeredTopology(3, 2, 3);
+    t.checkExpect(layers.size(), 18);
+    t.checkExpect(layers.neighbor(0, 4), 6);
+    t.checkExpect(layers.neighbor(12, 4), -1);
+    t.checkExpect(layers.neighbor(8, 5), 2);
+    t.checkExpect(layers.neighbor(9, 1), -1);
+    t.checkExpect(layers.neighbor(9, 3), 6);
+    this.checkSymmetric(t, layers);
+    this.checkSpanningTree(t, layers);
+  }
+
+  // testing the export method
+  void testExport(Tester t) {
+    long[] open = new long[1];
+    SearchScratch.set(open, 1);
+    SearchScratch.set(open, 4);
+    GraphMaze tiny = new GraphMaze(new TriangleTopology(3, 1), open);
+    t.checkExpect(tiny.export(), "triangle 3 1\n0 1\n1 2\n");
+    t.checkExpect(tiny.open(1, 0), true);
+    t.checkExpect(tiny.open(1, 2), false);
+  }
+
+  // TESTS FOR CHUNKED MAZES
+
+  // testing that chunks are deterministic and join up
+  void testChunkedMaze(Tester t) {
+    ChunkedMaze a = new ChunkedMaze(42, 8, 4);
+    ChunkedMaze b = new ChunkedMaze(42, 8, 100);
+    boolean same = true;
+    boolean symmetric = true;
+    for (int y = -12; y < 12; y++) {
+      for (int x = -12; x < 12; x++) {
+        for (int d = 0; d < 4; d++) {
+          same = same && a.canMove(x, y, d) == b.canMove(x, y, d);
+        }
+        symmetric = symmetric && a.canMove(x, y, 0) == a.canMove(x + 1, y, 2)
+            && a.canMove(x, y, 1) == a.canMove(x, y + 1, 3);
+      }
+    }
+    t.checkExpect(same, true);
+    t.checkExpect(symmetric, true);
+
+    // a small cache keeps evicting and regenerating, but never holds more than it may
+    t.checkExpect(a.chunks.size(), 4);
+    t.checkExpect(a.evicted > 0, true);
+    t.checkExpect(b.chunks.size(), 16);
+
+    // exactly one door on the right side of a chunk
+    int doors = 0;
+    for (int y = 0; y < 8; y++) {
+      doors += b.canMove(7, y, 0) ? 1 : 0;
+    }
+    t.checkExpect(doors, 1);
+  }
+
+  // testing solving across chunks
+  void testChunkedSolve(Tester t) {
+    ChunkedMaze m = new ChunkedMaze(7, 6, 16);
+    int[] path = m.solve(-5, -5, 20, 9, 100000);
+
+    t.checkExpect(path[0], 20);
+    t.checkExpect(path[1], 9);
+    t.checkExpect(path[path.length - 2], -5);
+    t.checkExpect(path[path.length - 1], -5);
+    boolean connected = true;
+    for (int i = 0; i + 3 < path.length; i += 2) {
+      int dx = path[i + 2] - path[i];
+      int dy = path[i + 3] - path[i + 1];
+      int d = dx == 1 ? 0 : dx == -1 ? 2 : dy == 1 ? 1 : 3;
+      connected = connected && Math.abs(dx) + Math.abs(dy) == 1
+          && m.canMove(path[i], path[i + 1], d);
+    }
+    t.checkExpect(connected, true);
+    t.checkExpect(m.solve(0, 0, 1000, 1000, 50), null);
+  }
+
+  // testing the key and mix helpers
+  void testChunkKey(Tester t) {
+    t.checkExpect(ChunkedMaze.key(-1, 2), 0xFFFFFFFF00000002L);
+    t.checkExpect((int) (ChunkedMaze.key(3, -4) >> 32), 3);
+    t.checkExpect((int) ChunkedMaze.key(3, -4), -4);
+    t.checkExpect(ChunkedMaze.mix(1, 2, 3, 4), ChunkedMaze.mix(1, 2, 3, 4));
+    t.checkExpect(ChunkedMaze.mix(1, 2, 3, 4) == ChunkedMaze.mix(1, 3, 2, 4), false);
+  }
+
+  // TESTS FOR THE ANALYZER
+
+  // testing the degree and step methods
+  void testDegreeAndStep(Tester t) {
+    this.initData();
+    MazeGrid g = this.maze10.grid();
+    // maze10 is 0-3-4-5-8 with 4-7-6 and 5-2-1 hanging off it
+    t.checkExpect(g.degree(4), 3);
+    t.checkExpect(g.degree(5), 3);
+    t.checkExpect(g.degree(0), 1);
+    t.checkExpect(g.step(0, 1), 3);
+    t.checkExpect(g.step(0, 0), -1);
+    t.checkExpect(g.step(4, 2), 3);
+    t.checkExpect(g.step(5, 3), 2);
+  }
+
+  // testing the distances method
+  void testDistances(Tester t) {
+    this.initData();
+    int[] dist = new int[9];
+    int[] queue = new int[9];
+    int far = this.maze10.grid().distances(0, dist, queue);
+
+    t.checkExpect(dist, new int[] {0, 5, 4, 1, 2, 3, 4, 3, 4});
+    t.checkExpect(far, 1);
+  }
+
+  // testing the farthestPair method
+  void testFarthestPair(Tester t) {
+    this.initData();
+    // 1 is five steps from 0, and 0 and 6 are both five steps from 1
+    t.checkExpect(this.maze10.grid().farthestPair(), new int[] {1, 0});
+
+    MazeGrid big = MazeGrid.generate(40, 30, new Random(5));
+    int[] pair = big.farthestPair();
+    t.checkExpect(big.solve(Solution.BFS, pair[0], pair[1]).pathLength() - 1,
+        MazeStats.analyze(big, 0, 1199).diameter);
+  }
+
+  // testing the toggleFarthest method
+  void testToggleFarthest(Tester t) {
+    this.initData();
+    this.maze10.onKeyEvent("f");
+    t.checkExpect(this.maze10.farthest, true);
+    t.checkExpect(this.maze10.start, 1);
+    t.checkExpect(this.maze10.target, 0);
+    t.checkExpect(this.maze10.currentIndex, 1);
+
+    this.maze10.search(false);
+    t.checkExpect(this.maze10.correctPath.size(), 6);
+    t.checkExpect(this.maze10.correctPath.get(0), this.maze10.cells.get(0));
+
+    this.maze10.onKeyEvent("f");
+    t.checkExpect(this.maze10.farthest, false);
+    t.checkExpect(this.maze10.start, 0);
+    t.checkExpect(this.maze10.target, 8);
+    t.checkExpect(this.maze10.correctPath.size(), 0);
+
+    // the mode stays on for the next maze
+    this.maze10.toggleFarthest();
+    this.maze10.regenerate();
+    int[] pair = this.maze10.grid().farthestPair();
+    t.checkExpect(this.maze10.start, pair[0]);
+    t.checkExpect(this.maze10.target, pair[1]);
+  }
+
+  // testing the braid method on grids
+  void testBraidGrid(Tester t) {
+    this.initData();
+    MazeGrid tree = this.maze10.grid();
+    MazeGrid braided = tree.braid(1.0, new Random(3));
+    t.checkExpect(MazeStats.analyze(braided, 0, 8).deadEnds, 0);
+    t.checkExpect(MazeStats.analyze(tree, 0, 8).deadEnds, 4);
+    t.checkExpect(tree.braid(0.0, new Random(3)).rightBits(), tree.rightBits());
+    t.checkExpect(tree.braid(0.0, new Random(3)).downBits(), tree.downBits());
+
+    // breadth first search still finds a shortest path once there are loops
+    MazeGrid big = MazeGrid.generate(30, 20, new Random(4)).braid(0.8, new Random(4));
+    int[] dist = new int[600];
+    big.distances(0, dist, new int[600]);
+    for (int target : new int[] {599, 17, 310, 444}) {
+      Solution bfs = big.solve(Solution.BFS, 0, target);
+      t.checkExpect(bfs.pathLength() - 1, dist[target]);
+      t.checkExpect(big.solve(Solution.DIJKSTRA, 0, target).pathLength(), bfs.pathLength());
+      t.checkExpect(big.solve(Solution.DFS, 0, target).found(), true);
+    }
+  }
+
+  // testing the braid method on mazes
+  void testBraidMaze(Tester t) {
+    this.initData();
+    this.maze10.onKeyEvent("l");
+    t.checkExpect(MazeStats.analyze(this.maze10.grid(), 0, 8).deadEnds < 4, true);
+    // the maze only had edges for its passages, so every loop opened is a new one
+    t.checkExpect(this.maze10.edges.size(), 10);
+
+    this.maze10.braid(1.0);
+    t.checkExpect(MazeStats.analyze(this.maze10.grid(), 0, 8).deadEnds, 0);
+    t.checkExpect(this.maze10.edges.size(), 11);
+    t.checkExpect(this.maze10.grid().rightWeight, null);
+
+    // a maze rebuilt from a grid only has the passages, so braiding it adds edges
+    Maze rebuilt = new Maze(MazeGrid.generate(3, 3, new Random(0)));
+    t.checkExpect(rebuilt.edges.size(), 8);
+    rebuilt.braid(1.0);
+    int passages = 0;
+    for (int i = 0; i < 9; i++) {
+      passages += rebuilt.grid().degree(i);
+    }
+    t.checkExpect(rebuilt.edges.size(), passages / 2);
+    t.checkExpect(rebuilt.edges.size() > 8, true);
+  }
+
+  // testing the FloodFill class
+  void testFloodFill(Tester t) {
+    this.initData();
+    int[] dist = new int[9];
+    FloodFill small = new FloodFill(this.maze10.grid());
+    t.checkExpect(small.distances(0, dist), 1);
+    t.checkExpect(dist, new int[] {0, 5, 4, 1, 2, 3, 4, 3, 4});
+    t.checkExpect(small.reachable(4), new long[] {7L, 7L, 7L});
+
+    // a wall down the middle keeps the flood on one side
+    MazeGrid split = new MazeGrid(3, 1, new long[] {1L}, new long[] {0L});
+    t.checkExpect(new FloodFill(split).reachable(0), new long[] {3L});
+    t.checkExpect(new FloodFill(split).distances(2, new int[3]), 2);
+
+    // wide enough to carry between words, with loops, and with cells masked out
+    CellMask ring = CellMask.fromRows(
+        "##############################################################################",
+        "##                                                                          ##",
+        "##############################################################################");
+    MazeGrid[] grids = {
+        MazeGrid.generate(130, 20, new Random(6)),
+        MazeGrid.generate(130, 20, new Random(6)).braid(0.7, new Random(6)),
+        MazeGrid.generate(ring, new Random(6), new GeneratorScratch())};
+    for (MazeGrid g : grids) {
+      int[] expected = new int[g.size()];
+      int[] actual = new int[g.size()];
+      g.distances(0, expected, new int[g.size()]);
+      int far = new FloodFill(g).distances(0, actual);
+      int most = 0;
+      for (int d : expected) {
+        most = Math.max(most, d);
+      }
+      t.checkExpect(actual, expected);
+      t.checkExpect(actual[far], most);
+    }
+  }
+
+  // testing the two-ended distances method
+  void testDistanceFields(Tester t) {
+    this.initData();
+    MazeGrid g = this.maze10.grid();
+    int[] fromA = new int[9];
+    int[] fromB = new int[9];
+    g.distances(0, 8, fromA, fromB);
+    t.checkExpect(fromA, new int[] {0, 5, 4, 1, 2, 3, 4, 3, 4});
+    t.checkExpect(fromB, new int[] {4, 3, 2, 3, 2, 1, 4, 3, 0});
+
+    int[] single = new int[9];
+    t.checkExpect(g.distances(8, single), 0);
+    t.checkExpect(single, fromB);
+
+    // cut off cells stay at -1 in both
+    MazeGrid split = new MazeGrid(3, 1, new long[] {1L}, new long[] {0L});
+    int[] left = new int[3];
+    int[] right = new int[3];
+    split.distances(0, 2, left, right);
+    t.checkExpect(left, new int[] {0, 1, -1});
+    t.checkExpect(right, new int[] {-1, -1, 0});
+  }
+
+  // testing the heatmap drawing
+  void testHeatmap(Tester t) {
+    this.initData();
+    t.checkExpect(Maze.heatColor(0, 10), new Color(255, 240, 160));
+    t.checkExpect(Maze.heatColor(10, 10), new Color(190, 20, 40));
+    t.checkExpect(Maze.heatColor(0, 0), new Color(255, 240, 160));
+
+    this.maze10.onKeyEvent("h");
+    t.checkExpect(this.maze10.heatmap, true);
+    this.maze10.makeScene();
+    t.checkExpect(this.maze10.fromStart, new int[] {0, 5, 4, 1, 2, 3, 4, 3, 4});
+    t.checkExpect(this.maze10.fromTarget, new int[] {4, 3, 2, 3, 2, 1, 4, 3, 0});
+    t.checkExpect(this.maze10.mostFromStart, 5);
+
+    // later frames reuse the fields until the walls or the endpoints change
+    int[] fields = this.maze10.fromStart;
+    this.maze10.fromStart[1] = 3;
+    this.maze10.makeScene();
+    t.checkExpect(this.maze10.fromStart[1], 3);
+    this.maze10.onKeyEvent("f");
+    this.maze10.makeScene();
+    t.checkExpect(this.maze10.fromStart == fields, true);
+    t.checkExpect(this.maze10.fromStart[1], 0);
+    this.maze10.onKeyEvent("l");
+    this.maze10.makeScene();
+    t.checkExpect(this.maze10.fieldsVersion, this.maze10.wallVersion());
+
+    this.maze10.onKeyEvent("h");
+    t.checkExpect(this.maze10.heatmap, false);
+  }
+
+  // testing the MazeRandom class
+  void testMazeRandom(Tester t) {
+    // the first SplitMix64 output for a zero seed
+    t.checkExpect(new MazeRandom(0).nextLong(), 0xE220A8397B1DCDAFL);
+    MazeRandom r = new MazeRandom(7);
+    t.checkExpect(r.nextInt(10), 3);
+    t.checkExpect(r.nextInt(10), 0);
+    t.checkExpect(r.nextInt(1000000), 900760);
+    t.checkExpect(r.nextInt(Integer.MAX_VALUE), 1251833271);
+    t.checkException(new IllegalArgumentException("bound must be positive"),
+        new MazeRandom(7), "nextInt", 0);
+
+    MazeRandom same = new MazeRandom(5);
+    same.setSeed(9);
+    t.checkExpect(same.nextLong(), new MazeRandom(9).nextLong());
+
+    // the helpers step a stream held in an array the same way, touching nothing else
+    long[] states = {7L, 5L};
+    MazeRandom seven = new MazeRandom(7);
+    t.checkExpect(MazeRandom.next(states, 0), seven.nextLong());
+    t.checkExpect(MazeRandom.below(states, 0, 10), seven.nextInt(10));
+    t.checkExpect(MazeRandom.below(states, 0, Integer.MAX_VALUE),
+        seven.nextInt(Integer.MAX_VALUE));
+    t.checkExpect(states[1], 5L);
+    t.checkExpect(ChunkedMaze.scramble(0L), new MazeRandom(0).nextLong());
+
+    // and the agents draw from the same streams
+    AgentSim sim = new AgentSim(new MazeGrid(3, 3, new long[3], new long[3]), 0, 8, 2, 1L,
+        new RandomWalk());
+    MazeRandom second = new MazeRandom(sim.rng[1]);
+    t.checkExpect(sim.nextInt(1, 6), second.nextInt(6));
+    t.checkExpect(sim.nextInt(1, 1000), second.nextInt(1000));
+  }
+
+  // testing that a seed, an algorithm and a version always give the same walls. these
+  // hashes must never change: a change here means old seeds now build different mazes
+  void testGoldenMazes(Tester t) {
+    String[] algorithms = {MazeKey.KRUSKAL, MazeKey.WEIGHTED_KRUSKAL, MazeKey.HORIZONTAL_KRUSKAL};
+    long[] legacy = {0xF2EA5B6D57F09B53L, 0xC6F8CE1579D0002EL, 0x889D134D93ADC1F7L};
+    long[] splitmix = {0x69002B406313A9EBL, 0xFF9F6102F01924C0L, 0xDE336A10601F78C6L};
+    for (int a = 0; a < algorithms.length; a++) {
+      t.checkExpect(MazeGrid.generate(new MazeKey(40, 25, 1234L, algorithms[a], MazeKey.LEGACY),
+          new GeneratorScratch()).fingerprint(), legacy[a]);
+      t.checkExpect(MazeGrid.generate(new MazeKey(40, 25, 1234L, algorithms[a],
+          MazeKey.SPLITMIX), new GeneratorScratch()).fingerprint(), splitmix[a]);
+    }
+    t.checkExpect(MazeGrid.generate(new MazeKey(3, 3, 0L, MazeKey.KRUSKAL),
+        new GeneratorScratch()).fingerprint(), 0xBA4433D02F9E8026L);
+
+    // the object mazes agree with the grids
+    t.checkExpect(MazeGrid.of(new Maze(40, 25, new Random(1234L))).fingerprint(), legacy[0]);
+    t.checkExpect(MazeGrid.of(new Maze(40, 25, new MazeRandom(1234L))).fingerprint(),
+        splitmix[0]);
+
+    // the version is part of the key
+    t.checkExpect(new MazeKey(3, 3, 0L, MazeKey.KRUSKAL),
+        new MazeKey(3, 3, 0L, MazeKey.KRUSKAL, MazeKey.LEGACY));
+    t.checkExpect(new MazeKey(3, 3, 0L, MazeKey.KRUSKAL).equals(
+        new MazeKey(3, 3, 0L, MazeKey.KRUSKAL, MazeKey.SPLITMIX)), false);
+    t.checkException(new IllegalArgumentException("Unknown maze version: 3"),
+        new MazeKey(3, 3, 0L, MazeKey.KRUSKAL, 3), "random");
+  }
+
+  // testing the ReplayLog class
+  void testReplayLog(Tester t) {
+    this.initData();
+    MazeGrid g = this.maze10.grid();
+    ReplayLog log = ReplayLog.of(g, 0, 8, g.solve(Solution.DFS, 0, 8));
+    t.checkExpect(log.size(), 14);
+    t.checkExpect(log.cell(0), 0);
+    t.checkExpect(log.cell(8), 8);
+    t.checkExpect(log.onPath(8), false);
+    t.checkExpect(log.cell(9), 8);
+    t.checkExpect(log.onPath(9), true);
+    t.checkExpect(log.cell(13), 0);
+
+    // header, then one byte an event since every step is short
+    byte[] bytes = log.toBytes();
+    t.checkExpect(bytes.length, 36 + 14);
+    ReplayLog back = null;
+    try {
+      back = ReplayLog.load(new java.io.ByteArrayInputStream(bytes));
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("could not read back a replay", e);
+    }
+    t.checkExpect(back.events, log.events);
+    t.checkExpect(back.fingerprint, g.fingerprint());
+    t.checkExpect(back.target, 8);
+
+    // big jumps between cells still come back exactly
+    ReplayLog jumps = new ReplayLog(5000, 5000, 0, 24999999, 7L,
+        new int[] {24999999 << 1, 0, 12345678 << 1 | 1, 3 << 1});
+    try {
+      t.checkExpect(ReplayLog.load(new java.io.ByteArrayInputStream(jumps.toBytes())).events,
+          jumps.events);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("could not read back a replay", e);
+    }
+
+    bytes[0] = 0;
+    String error = "";
+    try {
+      ReplayLog.load(new java.io.ByteArrayInputStream(bytes));
+    }
+    catch (IOException e) {
+      error = e.getMessage();
+    }
+    t.checkExpect(error, "Not a maze replay");
+  }
+
+  // testing playing a search back from its replay log
+  void testReplay(Tester t) {
+    this.initData();
+    this.maze10.onKeyEvent("d");
+    t.checkExpect(this.maze10.replay.size(), 14);
+    this.maze10.onTick();
+    this.maze10.onTick();
+    t.checkExpect(this.maze10.replayPosition(), 2);
+
+    this.maze10.seek(11);
+    t.checkExpect(this.maze10.replayPosition(), 11);
+    t.checkExpect(this.maze10.eventsLeft(), 3);
+    // the 9 visits and the first 2 cells of the path back are drawn, and the search's own
+    // lists are left alone
+    t.checkExpect(this.maze10.drawnCell(10), this.maze10.cells.get(5));
+    t.checkExpect(this.maze10.path.size(), 9);
+    t.checkExpect(this.maze10.correctPath.size(), 5);
+
+    this.maze10.onKeyEvent(",");
+    t.checkExpect(this.maze10.replayPosition(), 1);
+    t.checkExpect(this.maze10.eventsLeft(), 13);
+    this.maze10.onKeyEvent(".");
+    t.checkExpect(this.maze10.replayPosition(), 11);
+    this.maze10.seek(100);
+    t.checkExpect(this.maze10.replayPosition(), 14);
+
+    this.maze10.seek(0);
+    this.maze10.onKeyEvent("]");
+    this.maze10.onKeyEvent("]");
+    t.checkExpect(this.maze10.replaySpeed, 4);
+    this.maze10.onTick();
+    t.checkExpect(this.maze10.replayPosition(), 4);
+    this.maze10.onKeyEvent("[");
+    this.maze10.onKeyEvent("[");
+    this.maze10.onKeyEvent("[");
+    t.checkExpect(this.maze10.replaySpeed, 1);
+
+    // a log plays on any maze with the same walls, and nowhere else
+    ReplayLog log = this.maze10.replay;
+    Maze copy = new Maze(this.maze10.grid());
+    copy.play(log);
+    t.checkExpect(copy.replayPosition(), 0);
+    t.checkExpect(copy.eventsLeft(), 14);
+    t.checkExpect(copy.drawing, true);
+    t.checkException(new IllegalArgumentException("The replay was recorded on a different maze"),
+        this.maze11, "play", log);
+
+    this.maze10.regenerate();
+    t.checkExpect(this.maze10.replay, null);
+  }
+
+  // counts how many cells of the given overlay show the given state
+  int countDrawn(byte[] overlay, byte state) {
+    int count = 0;
+    for (byte b : overlay) {
+      count += b == state ? 1 : 0;
+    }
+    return count;
+  }
+
+  // testing that the overlay keeps up with the animation without being worked out again
+  void testOverlay(Tester t) {
+    this.initData();
+    Maze m = this.maze10;
+    m.onKeyEvent("d");
+    m.lod = 2;
+    byte[] blocks = m.overlayBlocks();
+    t.checkExpect(blocks, new byte[4]);
+    m.seek(11);
+    byte[] played = m.overlay().clone();
+    // the 9 visits, 2 of them already covered by the path back
+    t.checkExpect(this.countDrawn(played, Maze.DRAWN_VISITED), 7);
+    t.checkExpect(this.countDrawn(played, Maze.DRAWN_PATH), 2);
+    t.checkExpect(played[8], Maze.DRAWN_PATH);
+    t.checkExpect(played[0], Maze.DRAWN_VISITED);
+    // the blocks were kept up to date along the way, and both match working it all out
+    t.checkExpect(m.overlayBlocks() == blocks, true);
+    t.checkExpect(blocks, new byte[] {1, 2, 1, 2});
+    m.redrawOverlay();
+    t.checkExpect(m.overlay(), played);
+    t.checkExpect(m.overlayBlocks(), blocks);
+
+    // playing backwards works it all out again
+    m.seek(1);
+    t.checkExpect(this.countDrawn(m.overlay(), Maze.DRAWN_VISITED), 1);
+    t.checkExpect(m.overlayBlocks(), new byte[] {1, 0, 0, 0});
+    m.seek(14);
+    t.checkExpect(m.overlay()[0], Maze.DRAWN_PATH);
+    t.checkExpect(this.countDrawn(m.overlay(), Maze.DRAWN_PATH), 5);
+    m.lod = 1;
+
+    // the cells visited by hand are drawn once the animation reaches them, then as they
+    // are reached
+    m.clearDrawing();
+    t.checkExpect(m.overlay(), new byte[9]);
+    m.onKeyEvent("m");
+    m.onKeyEvent("down");
+    t.checkExpect(m.overlay()[3], Maze.NOT_DRAWN);
+    m.onTick();
+    t.checkExpect(m.overlay()[3], Maze.DRAWN_VISITED);
+    m.onKeyEvent("right");
+    t.checkExpect(m.overlay()[4], Maze.DRAWN_VISITED);
+    t.checkExpect(this.countDrawn(m.overlay(), Maze.DRAWN_VISITED), 2);
+  }
+
+  // testing the agent policies and the AgentSim class
+  void testAgentSim(Tester t) {
+    this.initData();
+    MazeGrid grid = this.maze10.grid();
+    AgentSim one = new AgentSim(grid, 0, 8, 1, 1L, new WallFollower());
+    t.checkExpect(one.run(3), 3L);
+    t.checkExpect(one.cell[0], 7);
+    t.checkExpect(one.heading[0], (byte) 1);
+    // 0 3 4 7 6, back to 7 and 4, then 5 and 8
+    t.checkExpect(one.run(100), 5L);
+    t.checkExpect(one.arrived[0], true);
+    t.checkExpect(one.moves[0], 8);
+    t.checkExpect(one.run(100), 0L);
+
+    AgentSim tremaux = new AgentSim(grid, 0, 8, 1, 1L, new Tremaux());
+    tremaux.run(100);
+    t.checkExpect(tremaux.moves[0], 4);
+    t.checkExpect(tremaux.mark(0, 3, 3), 1);
+    t.checkExpect(tremaux.mark(0, 0, 1), 1);
+    t.checkExpect(tremaux.mark(0, 4, 1), 0);
+    tremaux.addMark(0, 4, 1);
+    tremaux.addMark(0, 7, 3);
+    tremaux.addMark(0, 4, 1);
+    t.checkExpect(tremaux.mark(0, 4, 1), 2);
+    // Tremaux comes back down dead ends, and takes every loop of a braided maze
+    AgentSim braided = new AgentSim(grid.braid(1.0, new Random(3)), 0, 8, 1, 1L,
+        new Tremaux());
+    braided.run(1000);
+    t.checkExpect(braided.arrivals(), 1);
+    AgentSim lost = new AgentSim(grid, 0, 6, 1, 1L, new Tremaux());
+    lost.run(1000);
+    t.checkExpect(lost.cell[0], 6);
+    t.checkExpect(lost.moves[0], 12);
+
+    // many agents on a pool of threads end up just where they would on one
+    ForkJoinPool pool = new ForkJoinPool(3);
+    AgentSim crowd = new AgentSim(grid, 0, 8, 999, 7L,
+        new WallFollower(), new Tremaux(), new RandomWalk());
+    crowd.run(1000, pool);
+    pool.shutdown();
+    t.checkExpect(crowd.arrivals(), 999);
+    t.checkExpect(crowd.slot[1], 0);
+    t.checkExpect(crowd.slot[4], 1);
+    t.checkExpect(crowd.slot[3], -1);
+    t.checkExpect(crowd.moves[0], 8);
+    t.checkExpect(crowd.moves[996], 8);
+    t.checkExpect(crowd.moves[1], 4);
+    AgentSim walker = new AgentSim(grid, 0, 8, 3, 7L,
+        new WallFollower(), new Tremaux(), new RandomWalk());
+    walker.run(1000);
+    t.checkExpect(crowd.moves[2], walker.moves[2]);
+    t.checkExpect(crowd.movesPerSecond() > 0, true);
+    t.checkExpect(crowd.report().startsWith("999 agents, 999 arrived, "), true);
+
+    t.checkExpect(new AgentSim(grid, 8, 8, 2, 1L, new RandomWalk()).run(10), 0L);
+  }
+
+  // testing the solvers that walk the maze instead of searching it
+  void testWalkingSolvers(Tester t) {
+    this.initData();
+    MazeGrid grid = this.maze10.grid();
+    // 0 3 4 5 2 1, back to 2 and 5, then 8
+    t.checkExpect(AgentSim.walk(grid, 0, 8, new WallFollower(true), 100), 8L);
+    t.checkExpect(AgentSim.walk(grid, 0, 8, new WallFollower(), 100), 8L);
+    t.checkExpect(AgentSim.walk(grid, 0, 8, new WallFollower(), 7), -1L);
+    t.checkExpect(new WallFollower(true).name(), "left hand");
+
+    // blocked to the right at once, it goes down the left hand side of the wall
+    AgentSim pledge = new AgentSim(grid, 0, 8, 1, 0L, new Pledge(0));
+    pledge.advance(0, 1, 1);
+    t.checkExpect(pledge.cell[0], 3);
+    t.checkExpect(pledge.turns[0], -3);
+    pledge.advance(0, 1, 100);
+    t.checkExpect(pledge.moves[0], 8);
+    t.checkExpect(pledge.turns[0], -3);
+    t.checkExpect(AgentSim.walk(grid.braid(1.0, new Random(3)), 0, 8, new Pledge(0), 1000)
+        > 0, true);
+
+    t.checkExpect(AgentSim.walk(grid, 0, 8, new Tremaux(), 100), 4L);
+    t.checkExpect(new AgentSim(grid, 0, 8, 1, 0L, new Pledge(0)).stateBytes(), 27L);
+    t.checkExpect(new AgentSim(grid, 0, 8, 1, 0L, new Tremaux()).stateBytes(), 35L);
+    t.checkExpect(new AgentSim(new MazeGrid(40, 40, new long[40], new long[40]), 0, 8, 2, 0L,
+        new Tremaux()).stateBytes(), 54L + 2 * 8 * 100);
+  }
+
+  // testing the LazyMaze class
+  void testLazyMaze(Tester t) {
+    LazyMaze big = new LazyMaze(1000, 1000, 5);
+    t.checkExpect(big.generated, 0L);
+    t.checkExpect(big.pages.size(), 0);
+    big.maybeMove(3);
+    t.checkExpect(big.currentIndex, 0);
+    big.maybeMove(1);
+    big.maybeMove(1);
+    t.checkExpect(big.currentIndex, 2);
+    t.checkExpect(big.seen.cardinality(), 2);
+    t.checkExpect(big.generated, 2L);
+    t.checkExpect(big.pages.size(), 1);
+    // the top row is one corridor
+    t.checkExpect(big.passages(999), 4 | (big.passages(1999) >>> 3 & 1) << 1);
+
+    LazyMaze lazy = new LazyMaze(30, 20, 3);
+    Solution dfs = lazy.search(true);
+    t.checkExpect(lazy.generated < 600, true);
+    t.checkExpect(dfs.found(), true);
+    t.checkExpect(dfs.cameFrom(), null);
+    MazeGrid grid = lazy.toGrid();
+    t.checkExpect(lazy.generated, 600L);
+    t.checkExpect(dfs.visited(), grid.search(Solution.DFS, 0, 599).visited());
+    t.checkExpect(dfs.path(), grid.search(Solution.DFS, 0, 599).path());
+    t.checkExpect(lazy.search(false).visited(), grid.search(Solution.BFS, 0, 599).visited());
+    t.checkExpect(lazy.search(false).path(), grid.search(Solution.BFS, 0, 599).path());
+
+    // every cell is reached by exactly one path
+    int passages = 0;
+    for (int k = 0; k < grid.words(); k++) {
+      passages += Long.bitCount(grid.rightWord(k)) + Long.bitCount(grid.downWord(k));
+    }
+    t.checkExpect(passages, 599);
+    int[] dist = new int[600];
+    grid.distances(0, dist);
+    t.checkExpect(Arrays.stream(dist).min().getAsInt(), 0);
+    boolean same = true;
+    for (int i = 0; i < 600; i++) {
+      same = same && grid.passages(i) == lazy.passages(i);
+    }
+    t.checkExpect(same, true);
+
+    t.checkExpect(new LazyMaze(30, 20, 3).toGrid().fingerprint(), grid.fingerprint());
+    t.checkExpect(new LazyMaze(30, 20, 4).toGrid().fingerprint() == grid.fingerprint(), false);
+    t.checkExpect(new LazyMaze(1, 4, 3).search(false).path(), new int[] {3, 2, 1, 0});
+  }
+
+  // testing a Maze in lazy mode
+  void testLazyMode(Tester t) {
+    MazeGrid whole = new LazyMaze(30, 20, 3).toGrid();
+    Solution bfs = whole.search(Solution.BFS, 0, 599);
+    Maze m = new Maze(new LazyMaze(30, 20, 3));
+    // only the start cell has been generated
+    t.checkExpect(m.lazy.generated, 1L);
+    t.checkExpect(m.edges.size(), Integer.bitCount(whole.passages(0)));
+    t.checkExpect(MazeGrid.of(m).passages(0), whole.passages(0));
+
+    // a search generates only the cells it visits, and finds what it would on the whole maze
+    m.onKeyEvent("b");
+    t.checkExpect(m.lazy.generated, (long) bfs.visitedCount());
+    t.checkExpect(m.lazy.generated < 600, true);
+    t.checkExpect(m.eventsLeft(), bfs.visitedCount() + bfs.pathLength());
+    t.checkExpect(m.correctPath.size(), bfs.pathLength());
+    t.checkExpect(m.indexOf(m.correctPath.get(0)), 599);
+    MazeGrid part = MazeGrid.of(m);
+    boolean agrees = true;
+    for (int i = 0; i < 600; i++) {
+      agrees = agrees && (part.passages(i) & ~whole.passages(i)) == 0;
+    }
+    for (int i : bfs.visited()) {
+      agrees = agrees && part.passages(i) == whole.passages(i);
+    }
+    t.checkExpect(agrees, true);
+
+    // moving by hand generates each cell as it is reached, and reaching the target still
+    // shows the way back even though it was not there when manual solving began
+    Maze walk = new Maze(new LazyMaze(30, 20, 3));
+    walk.onKeyEvent("m");
+    walk.onKeyEvent("up");
+    t.checkExpect(walk.currentIndex, 0);
+    MazeGrid snapshot = walk.grid();
+    String[] keys = {"right", "down", "left", "up"};
+    for (int k = bfs.pathLength() - 1; k > 0; k--) {
+      int from = bfs.pathAt(k);
+      int to = bfs.pathAt(k - 1);
+      int d = to == from + 1 ? 0 : to == from + 30 ? 1 : to == from - 1 ? 2 : 3;
+      walk.onKeyEvent(keys[d]);
+    }
+    t.checkExpect(walk.currentIndex, 599);
+    t.checkExpect(walk.lazy.generated, (long) bfs.pathLength());
+    // the snapshot taken when manual solving began is kept up to date, not rebuilt
+    t.checkExpect(walk.grid() == snapshot, true);
+    t.checkExpect(snapshot.rightBits(), MazeGrid.of(walk).rightBits());
+    t.checkExpect(snapshot.downBits(), MazeGrid.of(walk).downBits());
+    t.checkExpect(walk.correctPath.size(), bfs.pathLength());
+    t.checkExpect(walk.eventsLeft(), bfs.pathLength());
+
+    // weights, the farthest pair and braiding are left alone, and r makes a new lazy maze
+    Maze other = new Maze(new LazyMaze(30, 20, 3));
+    int edges = other.edges.size();
+    other.onKeyEvent("w");
+    other.onKeyEvent("f");
+    other.onKeyEvent("l");
+    t.checkExpect(other.edges.size(), edges);
+    t.checkExpect(other.farthest, false);
+    other.onKeyEvent("r");
+    t.checkExpect(other.lazy.seed == 3, false);
+    t.checkExpect(other.lazy.generated, 1L);
+    t.checkExpect(other.edges.size(), Integer.bitCount(other.lazy.passages(0)));
+    t.checkExpect(other.target, 599);
+  }
+
+  // testing the FrameClock class
+  void testFrameClock(Tester t) {
+    FrameClock clock = new FrameClock(60);
+    t.checkExpect(clock.budget, 16666666L);
+    t.checkExpect(clock.steps, 1);
+    t.checkExpect(clock.percentile(0.5), 0L);
+
+    // fast frames grow the steps, by one at first and then by a quarter
+    for (int i = 0; i < 5; i++) {
+      clock.ticked(1000000);
+      clock.rendered(4000000, 1000);
+    }
+    t.checkExpect(clock.steps, 6);
+    clock.rendered(4000000, 1000);
+    t.checkExpect(clock.steps, 7);
+    // frames between three quarters of the budget and the budget hold it steady
+    clock.rendered(14000000, 1000);
+    t.checkExpect(clock.steps, 7);
+    // a slow one cuts it back, counting the tick that came before it
+    clock.ticked(10000000);
+    clock.rendered(10000000, 1000);
+    t.checkExpect(clock.steps, 6);
+    for (int i = 0; i < 20; i++) {
+      clock.rendered(40000000, 1000);
+    }
+    t.checkExpect(clock.steps, 1);
+
+    t.checkExpect(clock.count, 28L);
+    t.checkExpect(clock.percentile(0.0), 4000000L);
+    t.checkExpect(clock.percentile(0.2), 5000000L);
+    t.checkExpect(clock.percentile(0.25), 14000000L);
+    t.checkExpect(clock.percentile(0.5), 40000000L);
+    t.checkExpect(clock.percentile(1.0), 40000000L);
+    t.checkExpect(clock.report(),
+        "28 frames, p50 40.00 ms, p95 40.00 ms, p99 40.00 ms, 1 steps a tick");
+
+    // only the latest frames count
+    for (int i = 0; i < FrameClock.SAMPLES; i++) {
+      clock.rendered(2000000, 1000);
+    }
+    t.checkExpect(clock.percentile(0.99), 2000000L);
+
+    // a maze with a clock plays as many steps a tick as the clock allows
+    this.initData();
+    this.maze10.clock = new FrameClock(60);
+    this.maze10.clock.steps = 50;
+    this.maze10.onKeyEvent("d");
+    t.checkExpect(this.maze10.clock.steps, 1);
+    this.maze10.clock.steps = 3;
+    this.maze10.onTick();
+    t.checkExpect(this.maze10.replayPosition(), 3);
+    this.maze10.makeScene();
+    t.checkExpect(this.maze10.clock.count, 1L);
+    t.checkExpect(this.maze10.clock.tickNanos, 0L);
+    t.checkExpect(this.maze10.clock.steps <= 11, true);
+    this.maze10.onKeyEvent("p");
+    t.checkExpect(this.maze10.showTimes, true);
+    this.maze10.makeScene();
+    this.maze10.onKeyEvent("p");
+    t.checkExpect(this.maze10.showTimes, false);
+
+    // never more steps than there are events left, and none gained while idle
+    FrameClock idle = new FrameClock(60);
+    idle.steps = 40;
+    idle.rendered(1000, 5);
+    t.checkExpect(idle.steps, 5);
+    for (int i = 0; i < 100; i++) {
+      idle.rendered(1000, 0);
+    }
+    t.checkExpect(idle.steps, 5);
+    idle.rendered(1000, 0);
+    t.checkExpect(idle.count, 102L);
+
+    // a tick stops stepping once the animation is over
+    this.maze10.clock.steps = 1000;
+    this.maze10.onTick();
+    t.checkExpect(this.maze10.drawing, false);
+    t.checkExpect(this.maze10.replayPosition(), 14);
+  }
+
+  // testing the analyze method
+  void testAnalyze(Tester t) {
+    this.initData();
+    MazeStats stats = MazeStats.analyze(this.maze10.grid(), 0, 8);
+
+    t.checkExpect(stats.cells, 9);
+    t.checkExpect(stats.deadEnds, 4);
+    t.checkExpect(stats.junctions, 2);
+    t.checkExpect(stats.crossroads, 0);
+    t.checkExpect(stats.turns, 3);
+    t.checkExpect(stats.straights, 0);
+    t.checkExpect(stats.solutionLength, 4);
+    t.checkExpect(stats.diameter, 5);
+    t.checkExpect(stats.diameterStart, 1);
+    // 0 and 6 are both five steps from 1, and the walk reaches 6 first
+    t.checkExpect(stats.diameterEnd, 6);
+    t.checkExpect(stats.branchingFactor, 2.0);
+    // corridors: 0-3-4, 4-5, 4-7-6, 5-2-1 and 5-8
+    t.checkExpect(stats.corridors[0], 2);
+    t.checkExpect(stats.corridors[1], 3);
+    t.checkExpect(stats.riverFactor, 0.6);
+
+    // on a bigger maze the counts still add up
+    MazeStats big = MazeStats.analyze(MazeGrid.generate(130, 70, new Random(2)), 0, 9099);
+    t.checkExpect(big.deadEnds + big.junctions + big.turns + big.straights, 9100);
+    t.checkExpect(big.diameter >= big.solutionLength, true);
+  }
 }